@@ -0,0 +1,64 @@
+package org;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Bzip2Decoder} over {@code sample-pages.xml.bz2}, the sample dump compressed by
+ * the bzip2 tool into two streams of different block sizes. The setup first checks that
+ * the decoder returns the sample dump byte for byte and fails the run otherwise. The
+ * {@code megabytes} counter turns the score into MB of output per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class Bzip2DecoderBenchmark {
+
+  private byte[] compressed;
+  private int length;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      megabytes = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    compressed = SamplePages.bzip2();
+    byte[] expected = SamplePages.xml();
+    byte[] actual = Bzip2Decoder.decompress(compressed, 0, compressed.length);
+    int mismatch = Arrays.mismatch(actual, expected);
+    if (mismatch >= 0)
+      throw new IllegalStateException("Bzip2Decoder output differs from the bzip2 tool's input at byte " + mismatch
+          + " (" + actual.length + " bytes decoded, " + expected.length + " expected)");
+    length = actual.length;
+  }
+
+  @Benchmark
+  public byte[] decompress(Counters counters) throws Exception {
+    byte[] output = Bzip2Decoder.decompress(compressed, 0, compressed.length);
+    counters.megabytes += length / 1e6;
+    return output;
+  }
+}
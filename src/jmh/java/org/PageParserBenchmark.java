@@ -0,0 +1,80 @@
+package org;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * XML page parsing from memory with the event ({@link Pages}) and cursor
+ * ({@link CursorPages}) readers. The {@code megabytes} counter turns the score into
+ * MB of XML parsed per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PageParserBenchmark {
+
+  @Param({"event", "cursor"})
+  String reader;
+
+  @Param({"1024", "16384", "262144"})
+  int pageChars;
+
+  private byte[] xml;
+  private int pageCount;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long pages;
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      pages = 0;
+      megabytes = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    xml = SamplePages.xml(pageChars);
+    pageCount = SamplePages.texts(pageChars).size();
+  }
+
+  @Benchmark
+  public void parse(Counters counters, Blackhole blackhole) throws Exception {
+    ByteArrayInputStream input = new ByteArrayInputStream(xml);
+    // The exact page count keeps the event reader from running into the end of the document
+    Iterator<Page> pages = reader.equals("event")
+        ? Pages.read(input, pageCount)
+        : new CursorPages.PageIterator(input, pageCount, false);
+    int parsed = 0;
+    while (pages.hasNext()) {
+      Page page = pages.next();
+      if (page == null)
+        break;
+      blackhole.consume(page.getText());
+      ++parsed;
+    }
+    counters.pages += parsed;
+    counters.megabytes += xml.length / 1e6;
+  }
+}
@@ -0,0 +1,90 @@
+package org;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fixed benchmark input: {@code sample-pages.xml}, a small dump of wikitext pages
+ * with Latin and non-Latin text, references, templates and numbers. The page texts can
+ * be re-cut into pages of a chosen size, so the same corpus is measured at every size.
+ */
+final class SamplePages {
+
+  private static final String RESOURCE = "sample-pages.xml";
+  // Made with the bzip2 tool: the first 300000 bytes with -1 (three blocks), the rest with -9
+  private static final String BZIP2_RESOURCE = "sample-pages.xml.bz2";
+
+  private SamplePages() {
+  }
+
+  static byte[] xml() throws IOException {
+    return resource(RESOURCE);
+  }
+
+  /** {@code sample-pages.xml} as two concatenated bzip2 streams. */
+  static byte[] bzip2() throws IOException {
+    return resource(BZIP2_RESOURCE);
+  }
+
+  private static byte[] resource(String name) throws IOException {
+    try (InputStream input = SamplePages.class.getResourceAsStream(name)) {
+      if (input == null)
+        throw new IOException("Missing benchmark resource " + name);
+      return input.readAllBytes();
+    }
+  }
+
+  static List<Page> pages() throws Exception {
+    return MultistreamPages.parsePages(xml());
+  }
+
+  /**
+   * All sample text, cut at whitespace into pages of about {@code pageChars} characters.
+   * Pages larger than the corpus repeat it.
+   */
+  static List<String> texts(int pageChars) throws Exception {
+    StringBuilder corpus = new StringBuilder();
+    for (Page page : pages())
+      corpus.append(page.getText()).append('\n');
+    while (corpus.length() < pageChars)
+      corpus.append(corpus);
+    List<String> texts = new ArrayList<>();
+    int start = 0;
+    while (start < corpus.length()) {
+      int end = Math.min(corpus.length(), start + pageChars);
+      while (end < corpus.length() && !Character.isWhitespace(corpus.charAt(end)))
+        ++end;
+      texts.add(corpus.substring(start, end));
+      start = end;
+    }
+    return texts;
+  }
+
+  /** A dump holding {@link #texts(int)} as pages. */
+  static byte[] xml(int pageChars) throws Exception {
+    StringBuilder xml = new StringBuilder("<mediawiki>\n");
+    int id = 0;
+    for (String text : texts(pageChars)) {
+      ++id;
+      xml.append("  <page>\n    <title>Sample ").append(id).append("</title>\n    <ns>0</ns>\n    <id>").append(id)
+          .append("</id>\n    <revision>\n      <id>").append(id)
+          .append("</id>\n      <text xml:space=\"preserve\">");
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        if (c == '&')
+          xml.append("&amp;");
+        else if (c == '<')
+          xml.append("&lt;");
+        else if (c == '>')
+          xml.append("&gt;");
+        else
+          xml.append(c);
+      }
+      xml.append("</text>\n    </revision>\n  </page>\n");
+    }
+    return xml.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,122 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link Words#tokens} over the whole sample corpus, cut into pages of {@code pageChars}
+ * characters. Every invocation tokenizes the same text, so scores are comparable across
+ * page sizes; the {@code tokens} and {@code megachars} counters give per-token and
+ * per-character rates. Run with {@code -t N} to measure N threads tokenizing at once.
+ * The {@code vector} tokenizer must return exactly the words of the {@code fast} one;
+ * its setup fails the run if it does not.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// The module lets the vector tokenizer run; without it Words falls back to the fast one
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+
+  @Param({"breakiterator", "fast", "vector"})
+  String tokenizer;
+
+  @Param({"1024", "16384", "262144"})
+  int pageChars;
+
+  // Word characters first, so most random test strings hold a few words
+  private static final String CHECK_CHARS = "abcXYZ019 \t\n\r\f\u000B'-._\",#$%&!?()[]{}<>|=:;/"
+      + "\u00e9\u00c0\u00d7\u00f7\u00fc\u024f\u0250\u03a9\u4e2d\u0301\u00a0";
+
+  private List<String> texts;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long tokens;
+    public double megachars;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      tokens = 0;
+      megachars = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    texts = SamplePages.texts(pageChars);
+    tokenizer = Words.available(tokenizer);
+    if (tokenizer.equals("vector"))
+      checkSameWords("fast");
+  }
+
+  /**
+   * Fails unless the tokenizer returns the words of {@code reference} on the sample text
+   * and on random strings that put separators, joiners, digits and non-ASCII letters and
+   * marks at every position of a vector.
+   */
+  private void checkSameWords(String reference) {
+    List<String> checked = new ArrayList<>(texts);
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int length = random.nextInt(300); length > 0; length--)
+        text.append(CHECK_CHARS.charAt(random.nextInt(random.nextInt(4) == 0 ? CHECK_CHARS.length() : 9)));
+      checked.add(text.toString());
+    }
+    for (String text : checked) {
+      List<String> expected = words(text, reference);
+      List<String> actual = words(text, tokenizer);
+      if (actual.equals(expected))
+        continue;
+      int word = 0;
+      while (word < Math.min(actual.size(), expected.size()) && actual.get(word).equals(expected.get(word)))
+        ++word;
+      throw new IllegalStateException("The " + tokenizer + " tokenizer differs from " + reference + " at word "
+          + word + ": " + (word < actual.size() ? actual.get(word) : "(none)") + " instead of "
+          + (word < expected.size() ? expected.get(word) : "(none)") + ", in: "
+          + (text.length() > 200 ? text.substring(0, 200) + "..." : text));
+    }
+  }
+
+  private static List<String> words(String text, String tokenizer) {
+    List<String> words = new ArrayList<>();
+    for (CharSequence word : Words.tokens(text, tokenizer))
+      words.add(word.toString());
+    return words;
+  }
+
+  @Benchmark
+  public void tokenize(Counters counters, Blackhole blackhole) {
+    long tokens = 0;
+    long chars = 0;
+    for (String text : texts) {
+      for (CharSequence word : Words.tokens(text, tokenizer)) {
+        blackhole.consume(word);
+        ++tokens;
+      }
+      chars += text.length();
+    }
+    counters.tokens += tokens;
+    counters.megachars += chars / 1e6;
+  }
+}
@@ -0,0 +1,120 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counting already tokenized words, without tokenizer or parser cost. The pages are
+ * split over {@code threads} workers that either share one {@code ConcurrentHashMap}
+ * (the thread-pool engines) or fill their own {@code HashMap} / {@link CountTable}
+ * that are merged at the end (the ForkJoin and consumer-local engines). The score is
+ * the time to count the whole corpus once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WordCountMapBenchmark {
+
+  @Param({"1", "4"})
+  int threads;
+
+  @Param({"1024", "16384"})
+  int pageChars;
+
+  private List<String[]> pages;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws Exception {
+    pages = new ArrayList<>();
+    for (String text : SamplePages.texts(pageChars)) {
+      List<String> words = new ArrayList<>();
+      for (CharSequence word : Words.tokens(text, false))
+        words.add(word.toString());
+      pages.add(words.toArray(new String[0]));
+    }
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public Map<String, Integer> concurrentHashMap() throws Exception {
+    ConcurrentHashMap<String, Integer> counts = new ConcurrentHashMap<>();
+    forEachWorker(worker -> () -> {
+      for (int p = worker; p < pages.size(); p += threads)
+        for (String word : pages.get(p))
+          counts.merge(word, 1, Integer::sum);
+      return null;
+    });
+    return counts;
+  }
+
+  @Benchmark
+  public Map<String, Integer> hashMapMerge() throws Exception {
+    List<Map<String, Integer>> locals = forEachWorker(worker -> () -> {
+      Map<String, Integer> counts = new HashMap<>();
+      for (int p = worker; p < pages.size(); p += threads)
+        for (String word : pages.get(p))
+          counts.merge(word, 1, Integer::sum);
+      return counts;
+    });
+    Map<String, Integer> merged = locals.get(0);
+    for (int i = 1; i < locals.size(); i++)
+      locals.get(i).forEach((word, count) -> merged.merge(word, count, Integer::sum));
+    return merged;
+  }
+
+  @Benchmark
+  public CountTable countTableMerge() throws Exception {
+    List<CountTable> locals = forEachWorker(worker -> () -> {
+      CountTable counts = new CountTable();
+      for (int p = worker; p < pages.size(); p += threads)
+        for (String word : pages.get(p))
+          counts.increment(word);
+      return counts;
+    });
+    CountTable merged = locals.get(0);
+    for (int i = 1; i < locals.size(); i++)
+      merged = CountTable.merge(merged, locals.get(i));
+    return merged;
+  }
+
+  // Runs one task per worker index on the executor and returns their results in order
+  private <T> List<T> forEachWorker(IntFunction<Callable<T>> task) throws Exception {
+    List<Future<T>> futures = new ArrayList<>(threads);
+    for (int worker = 0; worker < threads; worker++)
+      futures.add(executor.submit(task.apply(worker)));
+    List<T> results = new ArrayList<>(threads);
+    for (Future<T> future : futures)
+      results.add(future.get());
+    return results;
+  }
+}
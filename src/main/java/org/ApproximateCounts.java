@@ -0,0 +1,91 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed-size approximate word statistics: a {@link CountMinSketch} for frequencies, a
+ * {@link MisraGries} summary for the heavy hitters and a {@link HyperLogLog} for the
+ * number of distinct words. Memory does not depend on the size of the dump, and
+ * summaries of different workers merge like exact counts. Dimensions come from the
+ * {@code sketch.width}, {@code sketch.depth}, {@code sketch.heavyHitters} and
+ * {@code sketch.precision} system properties.
+ */
+final class ApproximateCounts implements WordSummary {
+
+  static final int WIDTH = Integer.getInteger("sketch.width", 1 << 18);
+  static final int DEPTH = Integer.getInteger("sketch.depth", 5);
+  static final int HEAVY_HITTERS = Integer.getInteger("sketch.heavyHitters", 1024);
+  static final int PRECISION = Integer.getInteger("sketch.precision", 14);
+
+  private final CountMinSketch frequencies = new CountMinSketch(WIDTH, DEPTH);
+  private final MisraGries heavyHitters = new MisraGries(HEAVY_HITTERS);
+  private final HyperLogLog distinct = new HyperLogLog(PRECISION);
+
+  @Override
+  public void increment(CharSequence word) {
+    long hash = hash64(word);
+    frequencies.add(hash, 1);
+    distinct.add(hash);
+    heavyHitters.add(word);
+  }
+
+  @Override
+  public WordSummary combine(WordSummary other) {
+    ApproximateCounts counts = (ApproximateCounts) other;
+    long start = System.nanoTime();
+    frequencies.merge(counts.frequencies);
+    heavyHitters.merge(counts.heavyHitters);
+    distinct.merge(counts.distinct);
+    Metrics.merged(counts.heavyHitters.counters().size(), start);
+    return this;
+  }
+
+  /**
+   * The heavy hitters ordered by estimated count. Each estimate is the smaller of the
+   * sketch estimate and the Misra-Gries upper bound, so it lies in
+   * [{@code counter}, {@code counter + maxError}] and never below the true count.
+   */
+  @Override
+  public List<TopK.WordFrequency> top(int k) {
+    List<TopK.WordFrequency> estimated = new ArrayList<>();
+    long maxError = heavyHitters.maxError();
+    heavyHitters.counters().forEach((chars, offset, length, count) -> {
+      String word = new String(chars, offset, length);
+      long estimate = Math.min(frequencies.estimate(hash64(word)), count + maxError);
+      estimated.add(new TopK.WordFrequency(word, estimate));
+    });
+    return TopK.merge(Collections.singletonList(estimated), k);
+  }
+
+  @Override
+  public void report(int k) {
+    long total = frequencies.total();
+    long sketchError = (long) Math.ceil(frequencies.epsilon() * total);
+    System.out.println("Approximate counts over " + total + " words, "
+        + (frequencies.bytes() + heavyHitters.bytes() + distinct.bytes()) + " bytes of summaries");
+    System.out.printf("Distinct words: ~%d (+/- %.2f%% std. error)%n",
+        distinct.estimate(), distinct.relativeError() * 100);
+    System.out.printf("Frequency error: at most +%d with probability %.4f (Count-Min), lower bounds within -%d (Misra-Gries)%n",
+        sketchError, 1 - frequencies.delta(), heavyHitters.maxError());
+    for (TopK.WordFrequency entry : top(k)) {
+      long lower = heavyHitters.counters().get(entry.word);
+      System.out.println("Word: '" + entry.word + "' with total ~" + entry.count
+          + " occurrences! (between " + lower + " and " + entry.count + ")");
+    }
+  }
+
+  // 64-bit hash of the characters: a 64-bit polynomial hash finished with the murmur3 mixer
+  static long hash64(CharSequence word) {
+    long h = 1125899906842597L;
+    for (int i = 0, n = word.length(); i < n; i++)
+      h = 31 * h + word.charAt(i);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
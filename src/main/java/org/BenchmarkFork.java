@@ -0,0 +1,217 @@
+package org;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Child side of {@link GCBenchmarkRunner}: runs one engine for a number of warmup and
+ * measured iterations in a JVM that was started with the GC, heap and thread settings
+ * under test, and prints one {@link Iteration} line per measured iteration.
+ *
+ * <p>Usage: {@code BenchmarkFork <engine> <warmupIterations> <measuredIterations>}, with the
+ * engine options passed as system properties.
+ */
+final class BenchmarkFork {
+
+  /** Marks the result lines in the child's standard output. */
+  static final String PREFIX = "BENCH\t";
+
+  public static void main(String[] args) throws Exception {
+    WordCountEngine engine = WordCountEngine.forName(args[0]);
+    int warmup = Integer.parseInt(args[1]);
+    int iterations = Integer.parseInt(args[2]);
+    EngineConfig config = EngineConfig.fromSystemProperties();
+    for (Iteration iteration : run(engine, config, warmup, iterations))
+      System.out.println(PREFIX + iteration.toLine());
+  }
+
+  /** Runs {@code warmup} unrecorded iterations, then returns {@code iterations} measured ones. */
+  static List<Iteration> run(WordCountEngine engine, EngineConfig config, int warmup, int iterations)
+      throws Exception {
+    GcRecorder recorder = new GcRecorder();
+    List<Iteration> measured = new ArrayList<>();
+    try {
+      for (int i = 0; i < warmup + iterations; i++) {
+        Iteration iteration = measure(engine, config, recorder);
+        if (i >= warmup)
+          measured.add(iteration);
+      }
+    } finally {
+      recorder.close();
+    }
+    return measured;
+  }
+
+  // One iteration, started from a collected heap so that earlier garbage is not billed to it
+  private static Iteration measure(WordCountEngine engine, EngineConfig config, GcRecorder recorder)
+      throws Exception {
+    System.gc();
+    recorder.start();
+    long start = System.nanoTime();
+    try (EngineResult result = engine.run(config)) {
+      double wallMillis = (System.nanoTime() - start) / 1e6;
+      Iteration iteration = recorder.stop(wallMillis, result.getProcessedPages());
+      // Footprint of the counts: the live heap while the result is still reachable, and the off-heap tables
+      System.gc();
+      iteration.heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      iteration.offHeapBytes = result.getOffHeapBytes();
+      return iteration;
+    }
+  }
+
+  /** Measurements of one iteration. */
+  static final class Iteration {
+    final double wallMillis;
+    final int pages;
+    final long allocatedBytes;
+    final long gcCount;
+    final double gcMillis;
+    final double[] pauseMillis;
+    // Heap in use after a collection at the end of the run, and direct memory of off-heap counts
+    long heapBytes;
+    long offHeapBytes;
+
+    Iteration(double wallMillis, int pages, long allocatedBytes, long gcCount, double gcMillis, double[] pauseMillis) {
+      this.wallMillis = wallMillis;
+      this.pages = pages;
+      this.allocatedBytes = allocatedBytes;
+      this.gcCount = gcCount;
+      this.gcMillis = gcMillis;
+      this.pauseMillis = pauseMillis;
+    }
+
+    /** Allocation rate in MB/s over the wall time of the iteration. */
+    double allocationRate() {
+      return wallMillis <= 0 ? 0 : allocatedBytes / (1024.0 * 1024.0) / (wallMillis / 1000);
+    }
+
+    String toLine() {
+      StringBuilder pauses = new StringBuilder();
+      for (double pause : pauseMillis) {
+        if (pauses.length() > 0)
+          pauses.append(',');
+        pauses.append(pause);
+      }
+      return wallMillis + "\t" + pages + "\t" + allocatedBytes + "\t" + gcCount + "\t" + gcMillis + "\t" + pauses
+          + "\t" + heapBytes + "\t" + offHeapBytes;
+    }
+
+    static Iteration parse(String line) {
+      String[] fields = line.split("\t", -1);
+      String[] pauses = fields[5].isEmpty() ? new String[0] : fields[5].split(",");
+      double[] pauseMillis = new double[pauses.length];
+      for (int i = 0; i < pauses.length; i++)
+        pauseMillis[i] = Double.parseDouble(pauses[i]);
+      Iteration iteration = new Iteration(Double.parseDouble(fields[0]), Integer.parseInt(fields[1]),
+          Long.parseLong(fields[2]), Long.parseLong(fields[3]), Double.parseDouble(fields[4]), pauseMillis);
+      iteration.heapBytes = Long.parseLong(fields[6]);
+      iteration.offHeapBytes = Long.parseLong(fields[7]);
+      return iteration;
+    }
+  }
+
+  /**
+   * Collects GC notifications. Allocated bytes are the heap growth over the iteration
+   * plus everything the collections reclaimed; pauses are the durations of the
+   * stop-the-world collectors (concurrent cycles such as "ZGC Cycles" are not pauses).
+   */
+  static final class GcRecorder implements NotificationListener {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final List<Double> pauses = new ArrayList<>();
+    private final long countAtRegistration;
+    private long notifications;
+    private long reclaimedBytes;
+    private double gcMillis;
+    private long heapAtStart;
+    private long countAtStart;
+
+    GcRecorder() {
+      countAtRegistration = collectionCount();
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (gc instanceof NotificationEmitter) {
+          ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+          emitters.add((NotificationEmitter) gc);
+        }
+      }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+      if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+        return;
+      GarbageCollectionNotificationInfo info =
+          GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+      ++notifications;
+      reclaimedBytes += used(info.getGcInfo().getMemoryUsageBeforeGc()) - used(info.getGcInfo().getMemoryUsageAfterGc());
+      String name = info.getGcName();
+      if (!name.contains("Cycles") && !name.contains("Concurrent")) {
+        double duration = info.getGcInfo().getDuration();
+        pauses.add(duration);
+        gcMillis += duration;
+      }
+      notifyAll();
+    }
+
+    synchronized void start() throws InterruptedException {
+      awaitNotifications();
+      pauses.clear();
+      reclaimedBytes = 0;
+      gcMillis = 0;
+      countAtStart = collectionCount();
+      heapAtStart = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    synchronized Iteration stop(double wallMillis, int pages) throws InterruptedException {
+      long heapAtEnd = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      long collections = collectionCount() - countAtStart;
+      awaitNotifications();
+      double[] pauseMillis = new double[pauses.size()];
+      for (int i = 0; i < pauseMillis.length; i++)
+        pauseMillis[i] = pauses.get(i);
+      return new Iteration(wallMillis, pages, Math.max(0, heapAtEnd - heapAtStart + reclaimedBytes),
+          collections, gcMillis, pauseMillis);
+    }
+
+    // Notifications arrive asynchronously; give them a moment to catch up with the counters
+    private void awaitNotifications() throws InterruptedException {
+      long expected = collectionCount() - countAtRegistration;
+      long deadline = System.currentTimeMillis() + 500;
+      while (notifications < expected && System.currentTimeMillis() < deadline)
+        wait(10);
+    }
+
+    void close() {
+      for (NotificationEmitter emitter : emitters) {
+        try {
+          emitter.removeNotificationListener(this);
+        } catch (Exception e) {
+          // already removed
+        }
+      }
+    }
+
+    private static long collectionCount() {
+      long total = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        total += Math.max(0, gc.getCollectionCount());
+      return total;
+    }
+
+    private static long used(Map<String, MemoryUsage> pools) {
+      long total = 0;
+      for (MemoryUsage usage : pools.values())
+        total += usage.getUsed();
+      return total;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org;
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics of repeated measurements: median, percentiles and a 95%
+ * confidence interval of the mean (Student's t, so small iteration counts are not
+ * reported with false precision).
+ */
+final class BenchmarkStats {
+
+  // Two-sided 97.5% quantiles of Student's t for 1..30 degrees of freedom
+  private static final double[] T_975 = {
+      12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+      2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+      2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+
+  private final double[] sorted;
+
+  BenchmarkStats(double[] samples) {
+    sorted = samples.clone();
+    Arrays.sort(sorted);
+  }
+
+  int count() {
+    return sorted.length;
+  }
+
+  double mean() {
+    double sum = 0;
+    for (double value : sorted)
+      sum += value;
+    return sorted.length == 0 ? Double.NaN : sum / sorted.length;
+  }
+
+  double standardDeviation() {
+    if (sorted.length < 2)
+      return 0;
+    double mean = mean();
+    double squares = 0;
+    for (double value : sorted)
+      squares += (value - mean) * (value - mean);
+    return Math.sqrt(squares / (sorted.length - 1));
+  }
+
+  /** Half width of the 95% confidence interval of the mean; 0 for fewer than two samples. */
+  double confidenceHalfWidth() {
+    int n = sorted.length;
+    if (n < 2)
+      return 0;
+    double t = n - 1 <= T_975.length ? T_975[n - 2] : 1.960;
+    return t * standardDeviation() / Math.sqrt(n);
+  }
+
+  double median() {
+    return percentile(50);
+  }
+
+  /** Linearly interpolated percentile, {@code p} in [0, 100]. */
+  double percentile(double p) {
+    if (sorted.length == 0)
+      return Double.NaN;
+    double rank = p / 100 * (sorted.length - 1);
+    int lower = (int) Math.floor(rank);
+    int upper = (int) Math.ceil(rank);
+    return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+  }
+
+  double max() {
+    return sorted.length == 0 ? Double.NaN : sorted[sorted.length - 1];
+  }
+}
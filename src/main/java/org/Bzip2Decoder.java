@@ -0,0 +1,300 @@
+package org;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Minimal bzip2 decompressor for in-memory data. The JDK ships no bzip2 codec and the
+ * project has no dependencies, so this implements the format directly: Huffman/MTF
+ * decoding, inverse BWT and the final run-length stage, with block and stream CRC checks.
+ * One instance decodes one buffer and is not thread-safe; decode different streams of a
+ * multistream dump with different instances.
+ */
+final class Bzip2Decoder {
+
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_MAGIC = 0x177245385090L;
+  private static final int MAX_GROUPS = 6;
+  private static final int MAX_CODE_LEN = 23;
+  private static final int MAX_SELECTORS = 18002;
+  private static final int GROUP_SIZE = 50;
+  private static final int RUNA = 0;
+  private static final int RUNB = 1;
+  private static final int[] CRC_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int c = i << 24;
+      for (int k = 0; k < 8; k++)
+        c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+      CRC_TABLE[i] = c;
+    }
+  }
+
+  private final byte[] in;
+  private final int end;
+  private int position;
+  private long bitBuffer;
+  private int bitCount;
+
+  private byte[] out;
+  private int outLength;
+  private int[] tt;
+
+  private Bzip2Decoder(byte[] in, int offset, int length) {
+    this.in = in;
+    this.position = offset;
+    this.end = offset + length;
+    this.out = new byte[Math.max(1024, length * 4)];
+  }
+
+  /**
+   * Decompresses one or more concatenated bzip2 streams.
+   */
+  static byte[] decompress(byte[] data, int offset, int length) throws IOException {
+    Bzip2Decoder decoder = new Bzip2Decoder(data, offset, length);
+    do {
+      decoder.readStream();
+    } while (decoder.position < decoder.end);
+    return Arrays.copyOf(decoder.out, decoder.outLength);
+  }
+
+  private void readStream() throws IOException {
+    if (bits(8) != 'B' || bits(8) != 'Z' || bits(8) != 'h')
+      throw new IOException("Not a bzip2 stream");
+    int level = bits(8) - '0';
+    if (level < 1 || level > 9)
+      throw new IOException("Invalid bzip2 block size: " + level);
+    int blockSize = level * 100000;
+    if (tt == null || tt.length < blockSize)
+      tt = new int[blockSize];
+
+    int combinedCrc = 0;
+    while (true) {
+      long magic = ((long) bits(24) << 24) | bits(24);
+      int storedCrc = (bits(16) << 16) | bits(16);
+      if (magic == END_MAGIC) {
+        if (storedCrc != combinedCrc)
+          throw new IOException("bzip2 stream CRC mismatch");
+        bitCount = 0; // streams are padded to a whole byte
+        return;
+      }
+      if (magic != BLOCK_MAGIC)
+        throw new IOException("Bad bzip2 block header");
+      int blockCrc = readBlock(blockSize);
+      if (blockCrc != storedCrc)
+        throw new IOException("bzip2 block CRC mismatch");
+      combinedCrc = ((combinedCrc << 1) | (combinedCrc >>> 31)) ^ blockCrc;
+    }
+  }
+
+  // Decodes one block into out and returns its CRC
+  private int readBlock(int blockSize) throws IOException {
+    if (bits(1) != 0)
+      throw new IOException("Randomised bzip2 blocks are not supported");
+    int origPtr = bits(24);
+
+    // Symbol map: which byte values occur in the block
+    byte[] seqToUnseq = new byte[256];
+    int inUse = 0;
+    int used16 = bits(16);
+    for (int i = 0; i < 16; i++) {
+      if ((used16 & (0x8000 >>> i)) == 0)
+        continue;
+      int used = bits(16);
+      for (int j = 0; j < 16; j++)
+        if ((used & (0x8000 >>> j)) != 0)
+          seqToUnseq[inUse++] = (byte) (i * 16 + j);
+    }
+    if (inUse == 0)
+      throw new IOException("Empty bzip2 symbol map");
+    int alphaSize = inUse + 2;
+    int endOfBlock = inUse + 1;
+
+    // Huffman group selectors, stored move-to-front encoded
+    int groups = bits(3);
+    int selectorCount = bits(15);
+    if (groups < 2 || groups > MAX_GROUPS || selectorCount < 1)
+      throw new IOException("Invalid bzip2 Huffman tables");
+    byte[] selectors = new byte[Math.min(selectorCount, MAX_SELECTORS)];
+    byte[] groupMtf = {0, 1, 2, 3, 4, 5};
+    for (int i = 0; i < selectorCount; i++) {
+      int j = 0;
+      while (bits(1) == 1)
+        if (++j >= groups)
+          throw new IOException("Invalid bzip2 selector");
+      byte group = groupMtf[j];
+      System.arraycopy(groupMtf, 0, groupMtf, 1, j);
+      groupMtf[0] = group;
+      if (i < MAX_SELECTORS)
+        selectors[i] = group;
+    }
+    selectorCount = selectors.length;
+
+    // Delta-coded code lengths, turned into canonical decode tables
+    int[][] limit = new int[groups][MAX_CODE_LEN];
+    int[][] base = new int[groups][MAX_CODE_LEN];
+    int[][] perm = new int[groups][alphaSize];
+    int[] minLens = new int[groups];
+    int[] maxLens = new int[groups];
+    byte[] lengths = new byte[alphaSize];
+    for (int t = 0; t < groups; t++) {
+      int current = bits(5);
+      int minLen = 32;
+      int maxLen = 0;
+      for (int i = 0; i < alphaSize; i++) {
+        while (true) {
+          if (current < 1 || current > 20)
+            throw new IOException("Invalid bzip2 code length");
+          if (bits(1) == 0)
+            break;
+          current += bits(1) == 0 ? 1 : -1;
+        }
+        lengths[i] = (byte) current;
+        minLen = Math.min(minLen, current);
+        maxLen = Math.max(maxLen, current);
+      }
+      createDecodeTables(limit[t], base[t], perm[t], lengths, minLen, maxLen, alphaSize);
+      minLens[t] = minLen;
+      maxLens[t] = maxLen;
+    }
+
+    // Huffman + RUNA/RUNB + move-to-front decoding into tt
+    int[] byteCounts = new int[256];
+    byte[] mtf = new byte[256];
+    for (int i = 0; i < 256; i++)
+      mtf[i] = (byte) i;
+    int[] tt = this.tt;
+    int count = 0;
+    int selector = 0;
+    int groupRemaining = 0;
+    int group = 0;
+    int runLength = 0;
+    int runWeight = 1;
+    while (true) {
+      if (groupRemaining == 0) {
+        if (selector >= selectorCount)
+          throw new IOException("bzip2 selector overflow");
+        group = selectors[selector++];
+        groupRemaining = GROUP_SIZE;
+      }
+      --groupRemaining;
+      int[] groupLimit = limit[group];
+      int zn = minLens[group];
+      int zvec = bits(zn);
+      while (zvec > groupLimit[zn]) {
+        if (++zn > maxLens[group])
+          throw new IOException("Invalid bzip2 Huffman code");
+        zvec = (zvec << 1) | bits(1);
+      }
+      int symbol = perm[group][zvec - base[group][zn]];
+
+      if (symbol == RUNA || symbol == RUNB) {
+        runLength += (symbol == RUNA ? 1 : 2) * runWeight;
+        runWeight <<= 1;
+        if (runLength > blockSize)
+          throw new IOException("bzip2 run exceeds block size");
+        continue;
+      }
+      if (runLength > 0) {
+        int value = seqToUnseq[mtf[0] & 0xff] & 0xff;
+        if (count + runLength > blockSize)
+          throw new IOException("bzip2 block overflow");
+        byteCounts[value] += runLength;
+        Arrays.fill(tt, count, count + runLength, value);
+        count += runLength;
+        runLength = 0;
+        runWeight = 1;
+      }
+      if (symbol == endOfBlock)
+        break;
+      if (count >= blockSize)
+        throw new IOException("bzip2 block overflow");
+      int index = symbol - 1;
+      byte moved = mtf[index];
+      System.arraycopy(mtf, 0, mtf, 1, index);
+      mtf[0] = moved;
+      int value = seqToUnseq[moved & 0xff] & 0xff;
+      byteCounts[value]++;
+      tt[count++] = value;
+    }
+    if (origPtr >= count)
+      throw new IOException("Invalid bzip2 origin pointer");
+
+    // Inverse BWT: link every position to its successor in the upper 24 bits
+    int[] cumulative = new int[256];
+    for (int i = 1; i < 256; i++)
+      cumulative[i] = cumulative[i - 1] + byteCounts[i - 1];
+    for (int i = 0; i < count; i++)
+      tt[cumulative[tt[i] & 0xff]++] |= i << 8;
+
+    // Walk the chain while undoing the initial run-length encoding
+    int crc = 0xffffffff;
+    int pointer = tt[origPtr] >>> 8;
+    int last = -1;
+    int repeat = 0;
+    for (int i = 0; i < count; i++) {
+      pointer = tt[pointer];
+      int value = pointer & 0xff;
+      pointer >>>= 8;
+      if (repeat == 4) {
+        ensureCapacity(value);
+        for (int k = 0; k < value; k++) {
+          out[outLength++] = (byte) last;
+          crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ last) & 0xff];
+        }
+        repeat = 0;
+        last = -1;
+        continue;
+      }
+      if (value == last) {
+        ++repeat;
+      } else {
+        repeat = 1;
+        last = value;
+      }
+      ensureCapacity(1);
+      out[outLength++] = (byte) value;
+      crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ value) & 0xff];
+    }
+    return ~crc;
+  }
+
+  private static void createDecodeTables(int[] limit, int[] base, int[] perm, byte[] lengths,
+                                         int minLen, int maxLen, int alphaSize) {
+    int pp = 0;
+    for (int i = minLen; i <= maxLen; i++)
+      for (int j = 0; j < alphaSize; j++)
+        if (lengths[j] == i)
+          perm[pp++] = j;
+    for (int i = 0; i < alphaSize; i++)
+      base[lengths[i] + 1]++;
+    for (int i = 1; i < MAX_CODE_LEN; i++)
+      base[i] += base[i - 1];
+    int vec = 0;
+    for (int i = minLen; i <= maxLen; i++) {
+      vec += base[i + 1] - base[i];
+      limit[i] = vec - 1;
+      vec <<= 1;
+    }
+    for (int i = minLen + 1; i <= maxLen; i++)
+      base[i] = ((limit[i - 1] + 1) << 1) - base[i];
+  }
+
+  private void ensureCapacity(int extra) {
+    if (outLength + extra > out.length)
+      out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + extra));
+  }
+
+  private int bits(int n) throws IOException {
+    while (bitCount < n) {
+      if (position >= end)
+        throw new EOFException("Truncated bzip2 stream");
+      bitBuffer = (bitBuffer << 8) | (in[position++] & 0xff);
+      bitCount += 8;
+    }
+    bitCount -= n;
+    return (int) ((bitBuffer >>> bitCount) & ((1L << n) - 1));
+  }
+}
@@ -0,0 +1,84 @@
+package org;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Position and counts of a run over an XML dump: every page before byte {@code offset}
+ * of {@code fileName} has been counted into {@code counts}. Written by
+ * {@link CheckpointWordCount} and read back to resume the run from {@code offset}.
+ *
+ * <p>The file is a deflated stream of a header (magic, version, dump name and size,
+ * offset, pages) followed by the counts in {@link CountCodec} form. A snapshot is written
+ * to a temporary file and renamed over the previous one, so a crash while writing
+ * leaves the last complete checkpoint in place.
+ */
+final class Checkpoint {
+
+  private static final int MAGIC = 0x57434b50; // "WCKP"
+  private static final int VERSION = 2;
+
+  final String fileName;
+  final long fileSize;
+  final long offset;
+  final long pages;
+  final CountTable counts;
+
+  Checkpoint(String fileName, long fileSize, long offset, long pages, CountTable counts) {
+    this.fileName = fileName;
+    this.fileSize = fileSize;
+    this.offset = offset;
+    this.pages = pages;
+    this.counts = counts;
+  }
+
+  /** Replaces the checkpoint at {@code path} with this one. */
+  void write(Path path) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (OutputStream file = Files.newOutputStream(temporary);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+             new DeflaterOutputStream(file, deflater, 1 << 16), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(fileName);
+      out.writeLong(fileSize);
+      out.writeLong(offset);
+      out.writeLong(pages);
+      CountCodec.write(out, counts);
+    } finally {
+      deflater.end();
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static Checkpoint read(Path path) throws IOException {
+    try (InputStream file = Files.newInputStream(path);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(
+             new InflaterInputStream(new BufferedInputStream(file, 1 << 16)), 1 << 16))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException("Not a checkpoint: " + path);
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+      String fileName = in.readUTF();
+      long fileSize = in.readLong();
+      long offset = in.readLong();
+      long pages = in.readLong();
+      CountTable counts = new CountTable();
+      CountCodec.readInto(in, counts);
+      return new Checkpoint(fileName, fileSize, offset, pages, counts);
+    }
+  }
+}
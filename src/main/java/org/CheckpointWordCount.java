@@ -0,0 +1,250 @@
+package org;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Word count over an uncompressed XML dump that can be interrupted and resumed. The dump
+ * is cut into segments of about {@code segmentBytes} that start at a {@code <page>} tag;
+ * workers claim segments in file order and count each one into its own table. A merger
+ * thread folds the finished tables into the totals strictly in segment order, so the
+ * totals always cover exactly the pages before some segment boundary, and every
+ * {@code intervalSeconds} it writes them with that byte offset as a {@link Checkpoint}.
+ *
+ * <p>The workers never wait for a checkpoint: while one is written, finished segments
+ * queue up behind the merger, and only a worker that runs {@code WINDOW_PER_THREAD}
+ * segments per thread ahead of it blocks. A resumed run starts at the checkpoint offset
+ * with its counts and page total, so {@code maxPages} still limits the whole run. The
+ * limit is applied per segment: segments that have started are always finished.
+ */
+public class CheckpointWordCount implements WordCountEngine {
+
+    // Segments a worker may finish per thread before the merger has to catch up
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private final Path checkpointPath;
+    private final boolean resume;
+    private final long segmentBytes;
+    private final long intervalMillis;
+
+    CheckpointWordCount(Path checkpointPath, boolean resume, long segmentBytes, long intervalSeconds) {
+        this.checkpointPath = checkpointPath;
+        this.resume = resume;
+        this.segmentBytes = segmentBytes;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+    }
+
+    static CheckpointWordCount fromSystemProperties() {
+        String checkpoint = System.getProperty("checkpoint");
+        return new CheckpointWordCount(checkpoint == null ? null : Paths.get(checkpoint), Boolean.getBoolean("resume"),
+                Long.getLong("checkpointBytes", 64L << 20), Long.getLong("checkpointSeconds", 60));
+    }
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        CheckpointWordCount engine = fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Checkpointed ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Checkpoint: %s%n", engine.checkpointPath == null ? "none"
+                : engine.checkpointPath + " every " + engine.intervalMillis / 1000 + " s"
+                + (engine.resume ? ", resuming" : ""));
+        System.out.println("-----------------------------------------------------");
+
+        engine.run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "Checkpoint";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+        if (config.isInMemory() || MultistreamPages.isBzip2(config.getFileName()) || PageCache.isCache(config.getFileName()))
+            throw new IllegalArgumentException("Checkpoints need an uncompressed XML dump, not " + config.describeSource());
+
+        Path dump = Paths.get(config.getFileName());
+        Checkpoint from = startingPoint(dump);
+        long[] bounds;
+        try (FileChannel channel = FileChannel.open(dump, StandardOpenOption.READ)) {
+            bounds = PartitionedPages.segments(channel, from.offset, segmentBytes);
+        }
+
+        Segments segments = new Segments(config, from, bounds);
+        try (TaskScope scope = new TaskScope(runnable -> new Thread(runnable, "checkpoint-task"))) {
+            for (int i = 0; i < config.getThreadCount(); i++) {
+                scope.fork(() -> {
+                    segments.countSegments();
+                    return null;
+                });
+            }
+            Supplier<Checkpoint> merged = scope.fork(() -> segments.mergeSegments(checkpointPath, intervalMillis));
+            scope.join();
+            scope.throwIfFailed();
+
+            Checkpoint result = merged.get();
+            long end = System.currentTimeMillis();
+            return new EngineResult(name(), config, result.counts, (int) result.pages, end - start);
+        }
+    }
+
+    // The checkpoint to resume from, or the start of the dump
+    private Checkpoint startingPoint(Path dump) throws Exception {
+        long fileSize = Files.size(dump);
+        String fileName = dump.toAbsolutePath().normalize().toString();
+        if (!resume || checkpointPath == null || !Files.exists(checkpointPath))
+            return new Checkpoint(fileName, fileSize, 0, 0, new CountTable());
+        Checkpoint checkpoint = Checkpoint.read(checkpointPath);
+        if (!checkpoint.fileName.equals(fileName) || checkpoint.fileSize != fileSize)
+            throw new IllegalStateException("Checkpoint " + checkpointPath + " belongs to " + checkpoint.fileName
+                    + " (" + checkpoint.fileSize + " bytes), not " + fileName + " (" + fileSize + " bytes)");
+        System.out.printf("Resuming at byte %d after %d pages%n", checkpoint.offset, checkpoint.pages);
+        return checkpoint;
+    }
+
+    /**
+     * The segments of one run. Workers claim and count them; the merger receives the
+     * finished ones in file order through {@code merged}.
+     */
+    private static final class Segments {
+
+        private static final Object END = new Object();
+
+        private final EngineConfig config;
+        private final Checkpoint from;
+        private final long[] bounds;
+        private final AtomicInteger nextSegment = new AtomicInteger();
+        private final AtomicLong pagesCounted;
+        private final AtomicInteger runningWorkers;
+        private final Semaphore window;
+        private final BlockingQueue<Object> merged = new LinkedBlockingQueue<>();
+
+        // Finished segments waiting for an earlier one; guarded by this
+        private final CountTable[] finished;
+        private final int[] finishedPages;
+        private int nextToMerge;
+
+        Segments(EngineConfig config, Checkpoint from, long[] bounds) {
+            this.config = config;
+            this.from = from;
+            this.bounds = bounds;
+            this.pagesCounted = new AtomicLong(from.pages);
+            this.runningWorkers = new AtomicInteger(config.getThreadCount());
+            this.window = new Semaphore(WINDOW_PER_THREAD * config.getThreadCount());
+            this.finished = new CountTable[Math.max(0, bounds.length - 1)];
+            this.finishedPages = new int[finished.length];
+        }
+
+        void countSegments() throws InterruptedException {
+            try {
+                while (true) {
+                    window.acquire();
+                    int index = claim();
+                    if (index < 0) {
+                        window.release();
+                        return;
+                    }
+                    CountTable counts = new CountTable();
+                    int pages = 0;
+                    CursorPages.PageIterator iterator =
+                            PartitionedPages.openRange(config.getFileName(), bounds[index], bounds[index + 1]);
+                    while (iterator.hasNext()) {
+                        Page page = iterator.next();
+                        if (page == null)
+                            break;
+                        String text = config.prepare(page).getText();
+                        long begin = System.nanoTime();
+                        long tokens = 0;
+                        for (CharSequence word : Words.tokens(text)) {
+                            counts.increment(word);
+                            ++tokens;
+                        }
+                        Metrics.batchCounted(1, text.length(), tokens, begin);
+                        ++pages;
+                    }
+                    pagesCounted.addAndGet(pages);
+                    finish(index, counts, pages);
+                }
+            } finally {
+                if (runningWorkers.decrementAndGet() == 0)
+                    merged.add(END);
+            }
+        }
+
+        // The next segment to count, or -1 when the dump or the page budget is exhausted
+        private int claim() {
+            if (pagesCounted.get() >= config.getMaxPages())
+                return -1;
+            int index = nextSegment.getAndIncrement();
+            return index < finished.length ? index : -1;
+        }
+
+        // Hands over every segment whose predecessors have all been handed over
+        private synchronized void finish(int index, CountTable counts, int pages) {
+            finished[index] = counts;
+            finishedPages[index] = pages;
+            while (nextToMerge < finished.length && finished[nextToMerge] != null) {
+                merged.add(new Segment(finished[nextToMerge], bounds[nextToMerge + 1], finishedPages[nextToMerge]));
+                finished[nextToMerge++] = null;
+            }
+        }
+
+        Checkpoint mergeSegments(Path checkpointPath, long intervalMillis) throws Exception {
+            CountTable totals = from.counts;
+            long offset = from.offset;
+            long pages = from.pages;
+            long lastWrite = System.currentTimeMillis();
+            boolean written = true;
+            for (Object item = merged.take(); item != END; item = merged.take()) {
+                Segment segment = (Segment) item;
+                totals.addAll(segment.counts);
+                offset = segment.end;
+                pages += segment.pages;
+                written = false;
+                window.release();
+                if (checkpointPath != null && System.currentTimeMillis() - lastWrite >= intervalMillis) {
+                    write(checkpointPath, offset, pages, totals);
+                    lastWrite = System.currentTimeMillis();
+                    written = true;
+                }
+            }
+            Checkpoint last = new Checkpoint(from.fileName, from.fileSize, offset, pages, totals);
+            if (checkpointPath != null && !written)
+                write(checkpointPath, offset, pages, totals);
+            return last;
+        }
+
+        private void write(Path checkpointPath, long offset, long pages, CountTable totals) throws Exception {
+            long start = System.nanoTime();
+            new Checkpoint(from.fileName, from.fileSize, offset, pages, totals).write(checkpointPath);
+            System.out.printf("Checkpoint at byte %d after %d pages (%d words, %d ms)%n",
+                    offset, pages, totals.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static final class Segment {
+        final CountTable counts;
+        final long end;
+        final int pages;
+
+        Segment(CountTable counts, long end, int pages) {
+            this.counts = counts;
+            this.end = end;
+            this.pages = pages;
+        }
+    }
+}
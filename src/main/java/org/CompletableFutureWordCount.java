@@ -1,106 +1,120 @@
 package org;
 
-import java.util.Map;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
-
-import com.sun.management.OperatingSystemMXBean;
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Word‑count implementation that uses CompletableFuture to process pages in parallel.
+ * Unlike the long-running workers of {@link MultiThreadWithThreadPoolWordCount}, every
+ * page batch taken from the {@link PagePipeline} becomes its own asynchronous stage
+ * ({@code supplyAsync} counting the batch, then adding its pages to the total). At most
+ * {@code queueBatches} stages are pending on the executor at a time, so the executor's
+ * queue is bounded like the pipeline.
  */
-public class CompletableFutureWordCount {
+public class CompletableFutureWordCount implements WordCountEngine {
 
-    // Configuration
-    private static final int MAX_PAGES = 100000;
-    static final String FILE_NAME = System.getProperty("fileName", "enwiki.xml");
-    static int THREAD_COUNT = System.getProperty("threadCount") != null
-            ? Integer.parseInt(System.getProperty("threadCount"))
-            : Runtime.getRuntime().availableProcessors();
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Completable Future   ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Count backend: %s%n", config.getCountBackend());
+        System.out.println("-----------------------------------------------------");
 
-    // Shared state
-    private static final Map<String, Integer> COUNTS = new ConcurrentHashMap<>();
-    private static final ExecutorService EXECUTOR =
-            Executors.newFixedThreadPool(THREAD_COUNT);
+        new CompletableFutureWordCount().run(config).print();
+    }
 
-    private static void countWord(String word) {
-        COUNTS.merge(word, 1, Integer::sum); // thread‑safe merge
+    @Override
+    public String name() {
+        return "CompletableFuture";
     }
 
-    public static void main(String[] args) {
-        System.out.println("-----------------------------------------------------");
-        System.out.println("=== Completable Future   ===");
-        System.out.printf("Processing file: %s%n", FILE_NAME);
-        System.out.printf("Number of threads: %d%n", THREAD_COUNT);
-        System.out.println("-----------------------------------------------------");
+    @Override
+    public EngineResult run(EngineConfig config) throws InterruptedException {
+        // Per-run state: counts and the executor live only as long as this run
+        WordCounter counts = WordCounter.create(config.getCountBackend(), config.getThreadCount());
+        ExecutorService executor = Executors.newFixedThreadPool(config.getThreadCount());
 
+        Metrics.reset();
         long start = System.currentTimeMillis();   // start timer
-        MemoryMXBean memBean = ManagementFactory.getMemoryMXBean();
 
-        Iterable<Page> pages = new Pages(MAX_PAGES, FILE_NAME);
         AtomicInteger processedPages = new AtomicInteger(0);
 
-        // Launch asynchronous tasks, one per page
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-        for (Page page : pages) {
-            if (page == null) break;               // end of stream safeguard
-            final String text = page.getText();    // make effectively‑final
-            CompletableFuture<Void> fut =
-                    CompletableFuture.runAsync(() -> {
-                        Iterable<String> words = new Words(text);
-                        for (String w : words) {
-                            if (w.length() > 1 || w.equals("a") || w.equals("I"))
-                                countWord(w);
-                        }
-                        processedPages.incrementAndGet();
-                    }, EXECUTOR);
-            futures.add(fut);
+        // Bounded, batched hand-off: the parser blocks when the stages fall behind
+        PagePipeline pipeline = PagePipeline.forConfig(config);
+        Semaphore pendingStages = new Semaphore(config.getQueueBatches());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Launch one asynchronous stage per batch as soon as the parser has filled it
+        Thread dispatcher = new Thread(() -> {
+            try {
+                List<Page> batch;
+                while ((batch = pipeline.take()) != null) {
+                    pendingStages.acquire();
+                    List<Page> pages = batch;
+                    CompletableFuture.supplyAsync(() -> countBatch(pages, counts), executor)
+                            .thenAccept(processedPages::addAndGet)
+                            .whenComplete((ignored, error) -> {
+                                // A failed stage stops the parser instead of leaving it blocked on a full pipeline
+                                if (error != null) {
+                                    failure.compareAndSet(null, error instanceof CompletionException && error.getCause() != null
+                                            ? error.getCause() : error);
+                                    pipeline.abort();
+                                }
+                                pendingStages.release();
+                            });
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+            }
+        }, "batch-dispatcher");
+        dispatcher.start();
+
+        try {
+            // Parse on this thread and feed the batches to the stages
+            pipeline.produce(config);
+        } catch (RuntimeException e) {
+            // A failed stage aborts the pipeline, which the parser sees as its own error
+            failure.compareAndSet(null, e);
+        } finally {
+            dispatcher.join();
         }
-
-        // Wait for all tasks to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        EXECUTOR.shutdown();
+        try {
+            // Wait for all stages to complete: every permit is back once the last one has
+            pendingStages.acquire(config.getQueueBatches());
+        } finally {
+            executor.shutdown();
+        }
+        if (failure.get() != null)
+            throw new IllegalStateException("Word count failed", failure.get());
 
         long end = System.currentTimeMillis();
-        long elapsed = end - start;
-
-        // Metrics
-        MemoryUsage heapUsage = memBean.getHeapMemoryUsage();
-        long heapUsed = heapUsage.getUsed();
-
-        OperatingSystemMXBean osBean =
-                (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-        double cpuLoad = osBean.getProcessCpuLoad() * 100.0;
 
-        // Reporting
-        System.out.println("Processed pages: " + processedPages.get());
-        System.out.println("Elapsed time: " + elapsed + " ms");
-        System.out.println("Heap Memory Used: " + heapUsed + " bytes");
-        System.out.printf("CPU Load: %.2f%%\n", cpuLoad);
-
-        // Sort and print top 3 most frequent words
-        LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-        COUNTS.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(e -> commonWords.put(e.getKey(), e.getValue()));
+        return new EngineResult(name(), config, counts.result(), processedPages.get(), end - start);
+    }
 
-        commonWords.entrySet().stream()
-                .limit(3)
-                .toList()
-                .forEach(e -> System.out.println(
-                        "Word: '" + e.getKey() +
-                                "' with total " + e.getValue() + " occurrences!"));
+    // Counts the words of one batch and returns its number of pages
+    private static int countBatch(List<Page> batch, WordCounter counts) {
+        // Words.tokens already drops single characters other than "a"/"I"
+        long begin = System.nanoTime();
+        long tokens = 0;
+        long chars = 0;
+        for (Page page : batch) {
+            for (CharSequence w : Words.tokens(page.getText())) {
+                counts.count(w);   // thread‑safe, see WordCounter.create
+                ++tokens;
+            }
+            chars += page.getText().length();
+        }
+        Metrics.batchCounted(batch.size(), chars, tokens, begin);
+        return PagePipeline.pages(batch);
     }
 }
-
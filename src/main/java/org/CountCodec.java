@@ -0,0 +1,120 @@
+package org;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact binary form of a {@link CountTable}: the number of entries, then every entry
+ * as a varint key length, the key characters as varints (one byte for ASCII) and a
+ * varint count. Used for checkpoints and for the partial counts that distributed
+ * workers send to the coordinator.
+ */
+final class CountCodec {
+
+  private CountCodec() {
+  }
+
+  static void write(DataOutputStream out, CountTable counts) throws IOException {
+    writeVarint(out, counts.size());
+    IOException[] failure = new IOException[1];
+    counts.forEach((chars, offset, length, count) -> {
+      if (failure[0] == null) {
+        try {
+          writeEntry(out, chars, offset, length, count);
+        } catch (IOException e) {
+          failure[0] = e;
+        }
+      }
+    });
+    if (failure[0] != null)
+      throw failure[0];
+  }
+
+  /**
+   * Encodes {@code counts} as {@code partitions} independent blocks; a word always goes
+   * to the block {@link #partitionOf} picks, so blocks with the same index from
+   * different tables can be merged without looking at the other blocks.
+   */
+  static byte[][] writePartitioned(CountTable counts, int partitions) throws IOException {
+    ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[partitions];
+    DataOutputStream[] outs = new DataOutputStream[partitions];
+    int[] sizes = new int[partitions];
+    for (int p = 0; p < partitions; p++) {
+      buffers[p] = new ByteArrayOutputStream();
+      outs[p] = new DataOutputStream(buffers[p]);
+    }
+    IOException[] failure = new IOException[1];
+    counts.forEach((chars, offset, length, count) -> {
+      if (failure[0] == null) {
+        int p = partitionOf(chars, offset, length, partitions);
+        try {
+          writeEntry(outs[p], chars, offset, length, count);
+          sizes[p]++;
+        } catch (IOException e) {
+          failure[0] = e;
+        }
+      }
+    });
+    if (failure[0] != null)
+      throw failure[0];
+    byte[][] blocks = new byte[partitions][];
+    for (int p = 0; p < partitions; p++) {
+      ByteArrayOutputStream block = new ByteArrayOutputStream(buffers[p].size() + 5);
+      DataOutputStream out = new DataOutputStream(block);
+      writeVarint(out, sizes[p]);
+      buffers[p].writeTo(out);
+      blocks[p] = block.toByteArray();
+    }
+    return blocks;
+  }
+
+  static int partitionOf(char[] chars, int offset, int length, int partitions) {
+    return Math.floorMod(CountTable.hash(chars, offset, length), partitions);
+  }
+
+  /** Adds the entries written by {@link #write} to {@code counts}. */
+  static void readInto(DataInputStream in, CountTable counts) throws IOException {
+    long start = System.nanoTime();
+    long entries = readVarint(in);
+    char[] key = new char[64];
+    for (long e = 0; e < entries; e++) {
+      int length = (int) readVarint(in);
+      if (length > key.length)
+        key = new char[Math.max(length, key.length * 2)];
+      for (int i = 0; i < length; i++)
+        key[i] = (char) readVarint(in);
+      counts.add(key, 0, length, readVarint(in));
+    }
+    Metrics.merged(entries, start);
+  }
+
+  private static void writeEntry(DataOutputStream out, char[] chars, int offset, int length, long count)
+      throws IOException {
+    writeVarint(out, length);
+    for (int i = offset; i < offset + length; i++)
+      writeVarint(out, chars[i]);
+    writeVarint(out, count);
+  }
+
+  static void writeVarint(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+      if (shift > 56)
+        throw new IOException("Malformed varint");
+    }
+  }
+}
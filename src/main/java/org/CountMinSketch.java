@@ -0,0 +1,65 @@
+package org;
+
+/**
+ * Count-Min Sketch over 64-bit word hashes. An estimate never undercounts, and with
+ * probability {@code 1 - delta()} it overcounts by at most {@code epsilon() * total()}.
+ * Sketches with the same dimensions merge by adding their cells.
+ */
+final class CountMinSketch {
+
+  private final int width;
+  private final int depth;
+  private final long[] cells;
+  private long total;
+
+  public CountMinSketch(int width, int depth) {
+    if (Integer.bitCount(width) != 1)
+      throw new IllegalArgumentException("Sketch width must be a power of two: " + width);
+    this.width = width;
+    this.depth = depth;
+    this.cells = new long[width * depth];
+  }
+
+  public void add(long hash, long count) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    int mask = width - 1;
+    for (int row = 0; row < depth; row++)
+      cells[row * width + ((h1 + row * h2) & mask)] += count;
+    total += count;
+  }
+
+  public long estimate(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    int mask = width - 1;
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++)
+      min = Math.min(min, cells[row * width + ((h1 + row * h2) & mask)]);
+    return min;
+  }
+
+  public void merge(CountMinSketch other) {
+    if (other.width != width || other.depth != depth)
+      throw new IllegalArgumentException("Sketch dimensions differ");
+    for (int i = 0; i < cells.length; i++)
+      cells[i] += other.cells[i];
+    total += other.total;
+  }
+
+  public long total() {
+    return total;
+  }
+
+  public double epsilon() {
+    return Math.E / width;
+  }
+
+  public double delta() {
+    return Math.exp(-depth);
+  }
+
+  public long bytes() {
+    return cells.length * 8L;
+  }
+}
@@ -0,0 +1,301 @@
+package org;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Word-count table specialised for this workload. Keys are stored as slices of one
+ * shared {@code char[]} slab and counts as primitive {@code long}s in parallel arrays,
+ * addressed by linear probing. Lookups take any {@link CharSequence} (including the
+ * reused window of {@link FastWords}), so counting an existing word allocates nothing
+ * and a new word only costs its characters in the slab. Not thread-safe.
+ */
+final class CountTable implements WordSummary {
+
+  private static final int MIN_CAPACITY = 16;
+
+  /** Receives every entry of a table; the key is {@code chars[offset, offset + length)}. */
+  interface EntryVisitor {
+    void visit(char[] chars, int offset, int length, long count);
+  }
+
+  // Slot arrays; a zero hash marks an empty slot
+  private int[] hashes;
+  private int[] offsets;
+  private int[] lengths;
+  private long[] counts;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  // Key characters of all entries, appended in insertion order
+  private char[] chars;
+  private int charsUsed;
+
+  public CountTable() {
+    this(1024);
+  }
+
+  public CountTable(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 5 < expectedSize)
+      capacity <<= 1;
+    allocate(capacity);
+    chars = new char[Math.max(64, expectedSize * 8)];
+  }
+
+  private void allocate(int capacity) {
+    hashes = new int[capacity];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    counts = new long[capacity];
+    mask = capacity - 1;
+    resizeAt = capacity * 3 / 5;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void increment(CharSequence word) {
+    add(word, 1);
+  }
+
+  @Override
+  public WordSummary combine(WordSummary other) {
+    return merge(this, (CountTable) other);
+  }
+
+  @Override
+  public List<TopK.WordFrequency> top(int k) {
+    return TopK.select(this, k);
+  }
+
+  @Override
+  public void report(int k) {
+    TopK.report(this, k);
+  }
+
+  /**
+   * Adds {@code delta} to the count of {@code word} and returns the new count.
+   */
+  public long add(CharSequence word, long delta) {
+    int length = word.length();
+    return add(word, length, hash(word, length), delta);
+  }
+
+  /**
+   * Same as {@link #add(CharSequence, long)} for callers that already computed
+   * {@link #hash(CharSequence, int)}.
+   */
+  long add(CharSequence word, int length, int hash, long delta) {
+    int slot = hash & mask;
+    while (true) {
+      int h = hashes[slot];
+      if (h == 0) {
+        insert(slot, hash, word, length, delta);
+        return delta;
+      }
+      if (h == hash && lengths[slot] == length && keyEquals(offsets[slot], word, length)) {
+        return counts[slot] += delta;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public void add(char[] buffer, int offset, int length, long delta) {
+    add(buffer, offset, length, hash(buffer, offset, length), delta);
+  }
+
+  private void add(char[] buffer, int offset, int length, int hash, long delta) {
+    int slot = hash & mask;
+    while (true) {
+      int h = hashes[slot];
+      if (h == 0) {
+        int keyOffset = appendKey(buffer, offset, length);
+        place(slot, hash, keyOffset, length, delta);
+        return;
+      }
+      if (h == hash && lengths[slot] == length
+          && Arrays.equals(chars, offsets[slot], offsets[slot] + length, buffer, offset, offset + length)) {
+        counts[slot] += delta;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public long get(CharSequence word) {
+    int length = word.length();
+    int hash = hash(word, length);
+    for (int slot = hash & mask; hashes[slot] != 0; slot = (slot + 1) & mask)
+      if (hashes[slot] == hash && lengths[slot] == length && keyEquals(offsets[slot], word, length))
+        return counts[slot];
+    return 0;
+  }
+
+  /**
+   * Adds every count of {@code other} to this table. Stored hashes are reused, so no
+   * key is hashed twice.
+   */
+  public void addAll(CountTable other) {
+    long start = System.nanoTime();
+    addEntries(other);
+    Metrics.merged(other.size, start);
+  }
+
+  // addAll without the merge metrics, for tables that are a part of another summary
+  void addEntries(CountTable other) {
+    for (int slot = 0; slot < other.hashes.length; slot++)
+      if (other.hashes[slot] != 0)
+        add(other.chars, other.offsets[slot], other.lengths[slot], other.hashes[slot], other.counts[slot]);
+  }
+
+  /**
+   * Merges two tables, reusing the larger one; either argument may be returned.
+   */
+  static CountTable merge(CountTable left, CountTable right) {
+    if (left.size < right.size) {
+      right.addAll(left);
+      return right;
+    }
+    left.addAll(right);
+    return left;
+  }
+
+  /**
+   * Returns a compacted copy holding only the words counted more than {@code amount}
+   * times, each with {@code amount} subtracted.
+   */
+  CountTable pruned(long amount) {
+    CountTable kept = new CountTable(size);
+    for (int slot = 0; slot < hashes.length; slot++)
+      if (hashes[slot] != 0 && counts[slot] > amount)
+        kept.add(chars, offsets[slot], lengths[slot], hashes[slot], counts[slot] - amount);
+    return kept;
+  }
+
+  // Slot-level access for scans that split the table into ranges (see TopK)
+
+  int capacity() {
+    return hashes.length;
+  }
+
+  boolean isOccupied(int slot) {
+    return hashes[slot] != 0;
+  }
+
+  long countAt(int slot) {
+    return counts[slot];
+  }
+
+  String keyAt(int slot) {
+    return new String(chars, offsets[slot], lengths[slot]);
+  }
+
+  int compareKeys(int slot, int otherSlot) {
+    return Arrays.compare(chars, offsets[slot], offsets[slot] + lengths[slot],
+        chars, offsets[otherSlot], offsets[otherSlot] + lengths[otherSlot]);
+  }
+
+  public void forEach(EntryVisitor visitor) {
+    for (int slot = 0; slot < hashes.length; slot++)
+      if (hashes[slot] != 0)
+        visitor.visit(chars, offsets[slot], lengths[slot], counts[slot]);
+  }
+
+  /**
+   * Copies the table into a {@code HashMap}; meant for reporting, not for hot paths.
+   */
+  public Map<String, Long> toMap() {
+    Map<String, Long> map = new HashMap<>(size * 4 / 3 + 1);
+    forEach((buffer, offset, length, count) -> map.put(new String(buffer, offset, length), count));
+    return map;
+  }
+
+  private void insert(int slot, int hash, CharSequence word, int length, long delta) {
+    ensureChars(length);
+    int keyOffset = charsUsed;
+    for (int i = 0; i < length; i++)
+      chars[keyOffset + i] = word.charAt(i);
+    charsUsed += length;
+    place(slot, hash, keyOffset, length, delta);
+  }
+
+  private int appendKey(char[] buffer, int offset, int length) {
+    ensureChars(length);
+    int keyOffset = charsUsed;
+    System.arraycopy(buffer, offset, chars, keyOffset, length);
+    charsUsed += length;
+    return keyOffset;
+  }
+
+  private void place(int slot, int hash, int keyOffset, int length, long count) {
+    hashes[slot] = hash;
+    offsets[slot] = keyOffset;
+    lengths[slot] = length;
+    counts[slot] = count;
+    if (++size > resizeAt)
+      rehash();
+  }
+
+  private void ensureChars(int length) {
+    if (charsUsed + length > chars.length)
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsUsed + length));
+  }
+
+  private void rehash() {
+    int[] oldHashes = hashes;
+    int[] oldOffsets = offsets;
+    int[] oldLengths = lengths;
+    long[] oldCounts = counts;
+    allocate(oldHashes.length * 2);
+    for (int i = 0; i < oldHashes.length; i++) {
+      int hash = oldHashes[i];
+      if (hash == 0)
+        continue;
+      int slot = hash & mask;
+      while (hashes[slot] != 0)
+        slot = (slot + 1) & mask;
+      hashes[slot] = hash;
+      offsets[slot] = oldOffsets[i];
+      lengths[slot] = oldLengths[i];
+      counts[slot] = oldCounts[i];
+    }
+  }
+
+  private boolean keyEquals(int keyOffset, CharSequence word, int length) {
+    char[] keys = chars;
+    for (int i = 0; i < length; i++)
+      if (keys[keyOffset + i] != word.charAt(i))
+        return false;
+    return true;
+  }
+
+  static int hash(CharSequence word, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++)
+      h = 31 * h + word.charAt(i);
+    return mix(h);
+  }
+
+  static int hash(char[] buffer, int offset, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++)
+      h = 31 * h + buffer[offset + i];
+    return mix(h);
+  }
+
+  // Spreads String-style hashes over the low bits used for slot selection; never 0
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h == 0 ? 1 : h;
+  }
+}
@@ -0,0 +1,150 @@
+package org;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Page reader built on the StAX cursor API. Only {@code <title>} and {@code <text>}
+ * are materialized; every other element (siteinfo, contributor, sha1, ...) is
+ * stepped over without creating event objects for it.
+ */
+class CursorPages implements Iterable<Page> {
+
+  private final int maxPages;
+  private final String fileName;
+
+  public CursorPages(int maxPages, String fileName) {
+    this.maxPages = maxPages;
+    this.fileName = fileName;
+  }
+
+  static XMLInputFactory newFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    return factory;
+  }
+
+  // Elements we have to descend into to reach <title> and <text>
+  private static boolean isContainer(String name) {
+    return name.equals("mediawiki") || name.equals("page") || name.equals("revision");
+  }
+
+  /**
+   * Iterates the pages of an XML stream. The stream does not have to be a complete
+   * dump: any sequence of {@code <page>} elements under a single root element works,
+   * which is what the partitioned readers feed it.
+   */
+  static class PageIterator implements Iterator<Page> {
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private final boolean verbose;
+    private int remainingPages;
+    private Page nextPage;
+    private boolean done;
+
+    PageIterator(InputStream input, int maxPages, boolean verbose) throws Exception {
+      this.input = input;
+      this.verbose = verbose;
+      remainingPages = maxPages;
+      reader = newFactory().createXMLStreamReader(input);
+    }
+
+    public boolean hasNext() {
+      if (nextPage == null && !done)
+        nextPage = readPage();
+      return nextPage != null;
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Page page = nextPage;
+      nextPage = null;
+      return page;
+    }
+
+    private Page readPage() {
+      if (remainingPages <= 0) {
+        finish();
+        return null;
+      }
+      long start = System.nanoTime();
+      try {
+        String title = "";
+        String text = "";
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if (name.equals("title"))
+              title = reader.getElementText();
+            else if (name.equals("text"))
+              text = reader.getElementText();
+            else if (name.equals("page")) {
+              title = "";
+              text = "";
+            } else if (!isContainer(name))
+              skipElement();
+          } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("page")) {
+            --remainingPages;
+            Metrics.pageParsed(start, text.length());
+            return new Page(title, text);
+          }
+        }
+      } catch (Exception e) {
+        //e.printStackTrace(System.out);
+      }
+      if (verbose)
+        System.out.println("No more pages!");
+      finish();
+      return null;
+    }
+
+    // Advances the cursor to the end tag of the current element without touching its content
+    private void skipElement() throws Exception {
+      int depth = 1;
+      while (depth > 0) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT)
+          ++depth;
+        else if (event == XMLStreamConstants.END_ELEMENT)
+          --depth;
+      }
+    }
+
+    /** Stops the iteration early and releases the input. */
+    void close() {
+      finish();
+    }
+
+    private void finish() {
+      done = true;
+      remainingPages = 0;
+      try {
+        reader.close();
+        input.close();
+      } catch (Exception e) {
+        // nothing left to release
+      }
+    }
+
+    public void remove() { throw new UnsupportedOperationException(); }
+  }
+
+  public Iterator<Page> iterator() {
+    try {
+      System.out.println("Max pages: "+maxPages);
+      return new PageIterator(new FileInputStream(fileName), maxPages, true);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package org;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Coordinator of a word count spread over several worker processes
+ * ({@link DistributedWorker}). The input, a dump file or a directory of dumps, is cut
+ * into tasks: byte ranges of uncompressed XML dumps (realigned to {@code <page>} tags)
+ * and whole bz2 dumps. Workers connect over TCP, run each task with a local engine and
+ * send back their counts split into {@code mergePartitions} hash partitions. A worker
+ * gets its next task before its previous result is merged, and the connection threads
+ * merge into the partition tables under one lock per partition, so results of
+ * different workers are merged in parallel. The final counts stay partitioned
+ * ({@link PartitionedCounts}).
+ *
+ * <p>{@code workers} local worker JVMs are started on this machine; more can join from
+ * other machines with {@code java -Dcoordinator.host=H -Dcoordinator.port=P
+ * org.DistributedWorker}, as long as they see the dumps under the same paths. The page
+ * budget is split over the tasks when they are assigned; pages a task does not use go
+ * back to the tasks assigned after it. A failed task or a lost worker fails the run.
+ */
+public class DistributedWordCount implements WordCountEngine {
+
+    static final int MAGIC = 0x57434e54; // "WCNT"
+    static final int VERSION = 1;
+    static final byte TASK = 1;
+    static final byte STOP = 2;
+    static final byte RESULT = 3;
+    static final byte FAILED = 4;
+
+    private final int localWorkers;
+    private final String workerEngine;
+    private final String host;
+    private final int port;
+    private final int tasksPerFile;
+    private final int mergePartitions;
+
+    DistributedWordCount(int localWorkers, String workerEngine, String host, int port, int tasksPerFile,
+                         int mergePartitions) {
+        this.localWorkers = localWorkers;
+        this.workerEngine = workerEngine;
+        this.host = host;
+        this.port = port;
+        this.tasksPerFile = Math.max(1, tasksPerFile);
+        this.mergePartitions = Math.max(1, mergePartitions);
+    }
+
+    static DistributedWordCount fromSystemProperties() {
+        int workers = Integer.getInteger("workers", 2);
+        return new DistributedWordCount(workers, System.getProperty("workerEngine", "WithThreadPool"),
+                System.getProperty("coordinator.host", "127.0.0.1"), Integer.getInteger("coordinator.port", 0),
+                Integer.getInteger("tasksPerFile", 4 * Math.max(1, workers)),
+                Integer.getInteger("mergePartitions", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        DistributedWordCount engine = fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Distributed ===");
+        System.out.printf("Processing: %s%n", config.describeSource());
+        System.out.printf("Local workers: %d running %s%n", engine.localWorkers, engine.workerEngine);
+        System.out.printf("Merge partitions: %d%n", engine.mergePartitions);
+        System.out.println("-----------------------------------------------------");
+
+        engine.run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "Distributed";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+        if (config.isInMemory())
+            throw new IllegalArgumentException("Distributed runs read dump files, not " + config.describeSource());
+        Job job = new Job(plan(Paths.get(config.getFileName())), config.getMaxPages(), mergePartitions);
+
+        List<Process> processes = new ArrayList<>();
+        TaskScope scope = new TaskScope(runnable -> new Thread(runnable, "coordinator"));
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(host));
+        boolean finished = false;
+        try {
+            System.out.printf("Coordinator listening on %s:%d with %d tasks%n",
+                    host, server.getLocalPort(), job.taskCount);
+            scope.fork(() -> accept(server, scope, job));
+            for (int i = 0; i < localWorkers; i++)
+                processes.add(startWorker(server.getLocalPort()));
+
+            while (!job.done.await(100, TimeUnit.MILLISECONDS)) {
+                scope.throwIfFailed();
+                if (!processes.isEmpty() && job.connections.isEmpty() && processes.stream().noneMatch(Process::isAlive)
+                        && job.done.getCount() > 0)
+                    throw new IOException("Every worker process exited before the job was done");
+            }
+            // Every connection has sent its STOP by now; only the accept loop is left
+            server.close();
+            scope.join();
+            scope.throwIfFailed();
+            for (Process process : processes)
+                process.waitFor();
+            finished = true;
+        } finally {
+            server.close();
+            if (!finished) {
+                job.closeConnections();
+                processes.forEach(Process::destroyForcibly);
+            }
+            scope.close();
+        }
+
+        long end = System.currentTimeMillis();
+        return new EngineResult(name(), config, job.counts, (int) job.pages.get(), end - start);
+    }
+
+    // One task per byte range of an XML dump, one per bz2 dump or page cache
+    private List<Task> plan(Path input) throws IOException {
+        List<Path> files;
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> entries = Files.list(input)) {
+                files = entries.filter(DumpDirectory::isDump).sorted().collect(Collectors.toList());
+            }
+        } else {
+            files = List.of(input);
+        }
+        List<Task> tasks = new ArrayList<>();
+        for (Path file : files) {
+            String fileName = file.toAbsolutePath().normalize().toString();
+            if (MultistreamPages.isBzip2(fileName) || PageCache.isCache(fileName)) {
+                tasks.add(new Task(tasks.size(), workerEngine, fileName, 0, -1));
+                continue;
+            }
+            long[] bounds;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                bounds = PartitionedPages.boundaries(channel, tasksPerFile);
+            }
+            for (int i = 0; i + 1 < bounds.length; i++)
+                if (bounds[i] < bounds[i + 1])
+                    tasks.add(new Task(tasks.size(), workerEngine, fileName, bounds[i], bounds[i + 1]));
+        }
+        if (tasks.isEmpty())
+            throw new IllegalArgumentException("No dumps to count in " + input);
+        return tasks;
+    }
+
+    // Same JVM options as the coordinator, so heap size, -D settings and added modules reach the workers
+    private Process startWorker(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if ((argument.startsWith("-D") || argument.startsWith("-X") || argument.startsWith("--add-modules="))
+                    && !argument.startsWith("-Dcoordinator."))
+                command.add(argument);
+        command.add("-Dcoordinator.host=" + (InetAddress.getByName(host).isAnyLocalAddress() ? "127.0.0.1" : host));
+        command.add("-Dcoordinator.port=" + port);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DistributedWorker.class.getName());
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static Void accept(ServerSocket server, TaskScope scope, Job job) throws IOException {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (server.isClosed())
+                    return null;
+                throw e;
+            }
+            job.connections.add(socket);
+            scope.fork(() -> serve(socket, job));
+        }
+    }
+
+    // Feeds one worker until no task is left
+    private static Void serve(Socket socket, Job job) throws IOException {
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a word-count worker: " + connection.getRemoteSocketAddress());
+            String worker = in.readUTF();
+            System.out.println("Worker connected: " + worker);
+
+            Task task = job.next();
+            if (task != null)
+                send(out, task, job.counts.partitionCount());
+            while (task != null) {
+                byte type = in.readByte();
+                if (type == FAILED) {
+                    int id = in.readInt();
+                    throw new IOException("Task " + id + " failed on " + worker + ": " + in.readUTF());
+                }
+                if (type != RESULT || in.readInt() != task.id)
+                    throw new IOException("Unexpected reply from " + worker);
+                int pages = in.readInt();
+                long millis = in.readLong();
+                int partitions = in.readInt();
+                if (partitions != job.counts.partitionCount())
+                    throw new IOException("Worker " + worker + " sent " + partitions + " partitions");
+                byte[][] blocks = new byte[partitions][];
+                for (int p = 0; p < partitions; p++) {
+                    blocks[p] = new byte[in.readInt()];
+                    in.readFully(blocks[p]);
+                }
+
+                // Keep the worker busy while its result is merged
+                Task next = job.next();
+                if (next != null)
+                    send(out, next, partitions);
+                job.merge(task, pages, blocks);
+                System.out.printf("Task %d/%d (%s) done by %s: %d pages in %d ms%n",
+                        task.id + 1, job.taskCount, task.describe(), worker, pages, millis);
+                task = next;
+            }
+            out.writeByte(STOP);
+            out.flush();
+            return null;
+        } finally {
+            job.connections.remove(socket);
+        }
+    }
+
+    private static void send(DataOutputStream out, Task task, int partitions) throws IOException {
+        out.writeByte(TASK);
+        out.writeInt(task.id);
+        out.writeUTF(task.engine);
+        out.writeUTF(task.fileName);
+        out.writeLong(task.start);
+        out.writeLong(task.end);
+        out.writeInt(task.maxPages);
+        out.writeInt(partitions);
+        out.flush();
+    }
+
+    private static final class Task {
+        final int id;
+        final String engine;
+        final String fileName;
+        final long start;
+        // -1: the whole file
+        final long end;
+        // Page budget, set when the task is assigned
+        int maxPages;
+
+        Task(int id, String engine, String fileName, long start, long end) {
+            this.id = id;
+            this.engine = engine;
+            this.fileName = fileName;
+            this.start = start;
+            this.end = end;
+        }
+
+        String describe() {
+            return end < 0 ? fileName : fileName + " [" + start + ", " + end + ")";
+        }
+    }
+
+    /** Tasks still to assign, the page budget and the merged counts of one run. */
+    private static final class Job {
+        final int taskCount;
+        final PartitionedCounts counts;
+        final AtomicLong pages = new AtomicLong();
+        final CountDownLatch done;
+        final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+        // Guarded by this
+        private final ArrayDeque<Task> tasks;
+        private long unassignedPages;
+
+        Job(List<Task> tasks, int maxPages, int partitions) {
+            this.taskCount = tasks.size();
+            this.tasks = new ArrayDeque<>(tasks);
+            this.unassignedPages = maxPages;
+            this.counts = new PartitionedCounts(partitions);
+            this.done = new CountDownLatch(tasks.size());
+        }
+
+        // The next task with an even share of the remaining budget, or null
+        synchronized Task next() {
+            while (!tasks.isEmpty()) {
+                Task task = tasks.poll();
+                long share = (unassignedPages + tasks.size()) / (tasks.size() + 1);
+                if (share <= 0) {
+                    done.countDown();
+                    continue;
+                }
+                task.maxPages = (int) share;
+                unassignedPages -= share;
+                return task;
+            }
+            return null;
+        }
+
+        private synchronized void returnPages(long unused) {
+            unassignedPages += unused;
+        }
+
+        void merge(Task task, int taskPages, byte[][] blocks) throws IOException {
+            returnPages(task.maxPages - taskPages);
+            pages.addAndGet(taskPages);
+            // Connections start at different partitions so they rarely wait for each other
+            int first = task.id % blocks.length;
+            for (int i = 0; i < blocks.length; i++) {
+                int p = (first + i) % blocks.length;
+                CountTable partition = counts.partition(p);
+                synchronized (partition) {
+                    CountCodec.readInto(new DataInputStream(new ByteArrayInputStream(blocks[p])), partition);
+                }
+            }
+            done.countDown();
+        }
+
+        void closeConnections() {
+            for (Socket socket : connections) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // the connection is being abandoned anyway
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+/**
+ * Worker process of {@link DistributedWordCount}. Connects to the coordinator at
+ * {@code -Dcoordinator.host} / {@code -Dcoordinator.port}, then runs the tasks it is
+ * given with a local engine until the coordinator has no more work. The local engine
+ * uses the worker's own {@code -D} options (threadCount, parserThreads, tokenizer, ...);
+ * file, byte range, page budget and engine come with each task. The counts of a task
+ * are sent back hash-partitioned, see {@link CountCodec#writePartitioned}.
+ */
+public class DistributedWorker {
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("coordinator.host", "127.0.0.1");
+        Integer port = Integer.getInteger("coordinator.port");
+        if (port == null)
+            throw new IllegalArgumentException("-Dcoordinator.port is required");
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(DistributedWordCount.MAGIC);
+            out.writeInt(DistributedWordCount.VERSION);
+            out.writeUTF(ManagementFactory.getRuntimeMXBean().getName());
+            out.flush();
+            serve(in, out, EngineConfig.fromSystemProperties());
+        }
+    }
+
+    // Runs tasks until the coordinator says stop
+    private static void serve(DataInputStream in, DataOutputStream out, EngineConfig base) throws IOException {
+        while (in.readByte() == DistributedWordCount.TASK) {
+            int id = in.readInt();
+            String engineName = in.readUTF();
+            String fileName = in.readUTF();
+            long start = in.readLong();
+            long end = in.readLong();
+            int maxPages = in.readInt();
+            int partitions = in.readInt();
+
+            EngineConfig config = base.withFileName(fileName).withMaxPages(maxPages);
+            if (end >= 0)
+                config = config.withRange(start, end);
+            EngineResult result;
+            byte[][] blocks;
+            try {
+                result = WordCountEngine.forName(engineName).run(config);
+                if (!(result.getCounts() instanceof CountTable))
+                    throw new IllegalStateException("Distributed runs merge exact counts; use -DcountMode=exact");
+                blocks = CountCodec.writePartitioned((CountTable) result.getCounts(), partitions);
+            } catch (Exception e) {
+                out.writeByte(DistributedWordCount.FAILED);
+                out.writeInt(id);
+                out.writeUTF(String.valueOf(e));
+                out.flush();
+                throw new IOException("Task " + id + " failed on " + config.describeSource(), e);
+            }
+
+            out.writeByte(DistributedWordCount.RESULT);
+            out.writeInt(id);
+            out.writeInt(result.getProcessedPages());
+            out.writeLong(result.getElapsedMillis());
+            out.writeInt(blocks.length);
+            for (byte[] block : blocks) {
+                out.writeInt(block.length);
+                out.write(block);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds dump files ({@code *.xml}, {@code *.bz2}, {@code *.pages}) that land in a directory. A file is
+ * handed out once, after its size and modification time stayed the same between two
+ * scans, so a dump that is still being copied or downloaded is not read half-written.
+ * Hidden files and {@code *.part}/{@code *.tmp} files are ignored, as are the
+ * {@code multistream-index} files that accompany bz2 dumps.
+ */
+final class DumpDirectory {
+
+  private final Path directory;
+  private final Set<Path> handedOut = new HashSet<>();
+  // Size and modification time seen by the previous scan
+  private final Map<Path, String> lastSeen = new HashMap<>();
+
+  DumpDirectory(Path directory) {
+    this.directory = directory;
+  }
+
+  /** The files that became complete since the previous call, oldest first. */
+  List<Path> newFiles() throws IOException {
+    List<Path> ready = new ArrayList<>();
+    Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        if (handedOut.contains(entry) || !isDump(entry))
+          continue;
+        BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+        if (!attrs.isRegularFile())
+          continue;
+        String state = attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+        if (state.equals(lastSeen.put(entry, state))) {
+          ready.add(entry);
+          attributes.put(entry, attrs);
+        }
+      }
+    }
+    ready.sort(Comparator.comparing((Path file) -> attributes.get(file).lastModifiedTime()).thenComparing(Path::toString));
+    for (Path file : ready) {
+      handedOut.add(file);
+      lastSeen.remove(file);
+    }
+    return ready;
+  }
+
+  static boolean isDump(Path file) {
+    String name = file.getFileName().toString();
+    if (name.startsWith(".") || name.endsWith(".part") || name.endsWith(".tmp") || name.contains("multistream-index"))
+      return false;
+    return name.endsWith(".xml") || name.endsWith(".bz2") || PageCache.isCache(name);
+  }
+}
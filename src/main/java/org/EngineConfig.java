@@ -0,0 +1,302 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Immutable settings of one engine run. {@link #fromSystemProperties()} reads the same
+ * {@code -D} options the engines always used; the {@code with...} methods return
+ * modified copies, so a benchmark can derive variants from one base configuration.
+ */
+final class EngineConfig {
+
+  private int maxPages;
+  private String fileName;
+  private List<Page> pages;
+  private int threadCount;
+  private int parserThreads;
+  private int threshold;
+  private String countMode;
+  private String countBackend;
+  private int topK;
+  private int batchChars;
+  private int queueBatches;
+  private int pageSplitChars;
+  private int splitChars;
+  private String markup;
+  // Byte range of fileName to read; rangeEnd < 0 reads the whole file
+  private long rangeStart;
+  private long rangeEnd = -1;
+
+  private EngineConfig() {
+  }
+
+  private EngineConfig copy() {
+    EngineConfig copy = new EngineConfig();
+    copy.maxPages = maxPages;
+    copy.fileName = fileName;
+    copy.pages = pages;
+    copy.threadCount = threadCount;
+    copy.parserThreads = parserThreads;
+    copy.threshold = threshold;
+    copy.countMode = countMode;
+    copy.countBackend = countBackend;
+    copy.topK = topK;
+    copy.batchChars = batchChars;
+    copy.queueBatches = queueBatches;
+    copy.pageSplitChars = pageSplitChars;
+    copy.splitChars = splitChars;
+    copy.markup = markup;
+    copy.rangeStart = rangeStart;
+    copy.rangeEnd = rangeEnd;
+    return copy;
+  }
+
+  static EngineConfig fromSystemProperties() {
+    EngineConfig config = new EngineConfig();
+    config.maxPages = Integer.getInteger("maxPages", 100000);
+    config.fileName = System.getProperty("fileName", "enwiki.xml");
+    config.threadCount = Integer.getInteger("threadCount", Runtime.getRuntime().availableProcessors());
+    config.parserThreads = Integer.getInteger("parserThreads", 1);
+    config.threshold = Integer.getInteger("threshold", 1000);
+    config.countMode = System.getProperty("countMode", "exact");
+    config.countBackend = System.getProperty("countBackend", "map");
+    config.topK = TopK.DEFAULT_K;
+    config.batchChars = Integer.getInteger("batchChars", 1 << 20);
+    // 0 sizes the page pipeline to two batches per worker
+    config.queueBatches = Integer.getInteger("queueBatches", 0);
+    // 0 never splits a page
+    config.pageSplitChars = Integer.getInteger("pageSplitChars", 1 << 16);
+    config.splitChars = Integer.getInteger("splitChars", 1 << 16);
+    config.markup = System.getProperty("markup", "keep");
+    return config;
+  }
+
+  public int getMaxPages() { return maxPages; }
+  public String getFileName() { return fileName; }
+  public int getThreadCount() { return threadCount; }
+  public int getParserThreads() { return parserThreads; }
+  public int getThreshold() { return threshold; }
+  public String getCountMode() { return countMode; }
+  public String getCountBackend() { return countBackend; }
+  public int getTopK() { return topK; }
+  /** Characters of page text per batch handed to a counting worker. */
+  public int getBatchChars() { return batchChars; }
+  /** Batches the page pipeline buffers before the parser has to wait. */
+  public int getQueueBatches() { return queueBatches > 0 ? queueBatches : 2 * threadCount; }
+  /**
+   * Pages with more characters of text are counted in parts, see {@link PageSplits};
+   * never for n-gram counts, which would lose the n-grams across each cut.
+   */
+  public int getPageSplitChars() {
+    return countMode.equals("bigram") || countMode.equals("trigram") ? 0 : pageSplitChars;
+  }
+  /** Characters of text below which {@link StreamingForkJoinWordCount} stops splitting a batch. */
+  public int getSplitChars() { return Math.max(1, splitChars); }
+  /** {@code keep} counts the raw wikitext, {@code strip} only its prose, see {@link WikiText}. */
+  public String getMarkup() { return markup; }
+  /** True if the pages come from an in-memory list instead of {@code fileName}. */
+  public boolean isInMemory() { return pages != null; }
+
+  /** Where the pages come from: the file name, or the size of the in-memory page list. */
+  public String describeSource() {
+    if (pages != null)
+      return pages.size() + " pages in memory";
+    return rangeEnd < 0 ? fileName : fileName + " bytes [" + rangeStart + ", " + rangeEnd + ")";
+  }
+
+  public EngineConfig withMaxPages(int maxPages) {
+    EngineConfig copy = copy();
+    copy.maxPages = maxPages;
+    return copy;
+  }
+
+  public EngineConfig withFileName(String fileName) {
+    EngineConfig copy = copy();
+    copy.fileName = fileName;
+    copy.pages = null;
+    copy.rangeStart = 0;
+    copy.rangeEnd = -1;
+    return copy;
+  }
+
+  /**
+   * Reads only the pages of the uncompressed XML dump {@code fileName} that start in
+   * [{@code start}, {@code end}); {@code start} must be a {@code <page>} offset or 0.
+   */
+  public EngineConfig withRange(long start, long end) {
+    EngineConfig copy = copy();
+    copy.rangeStart = start;
+    copy.rangeEnd = end;
+    return copy;
+  }
+
+  /** Reads pages from {@code pages} instead of a file, e.g. to benchmark counting without XML parsing. */
+  public EngineConfig withPages(List<Page> pages) {
+    EngineConfig copy = copy();
+    copy.pages = pages;
+    return copy;
+  }
+
+  public EngineConfig withThreadCount(int threadCount) {
+    EngineConfig copy = copy();
+    copy.threadCount = threadCount;
+    return copy;
+  }
+
+  public EngineConfig withParserThreads(int parserThreads) {
+    EngineConfig copy = copy();
+    copy.parserThreads = parserThreads;
+    return copy;
+  }
+
+  public EngineConfig withThreshold(int threshold) {
+    EngineConfig copy = copy();
+    copy.threshold = threshold;
+    return copy;
+  }
+
+  public EngineConfig withCountMode(String countMode) {
+    EngineConfig copy = copy();
+    copy.countMode = countMode;
+    return copy;
+  }
+
+  public EngineConfig withCountBackend(String countBackend) {
+    EngineConfig copy = copy();
+    copy.countBackend = countBackend;
+    return copy;
+  }
+
+  public EngineConfig withTopK(int topK) {
+    EngineConfig copy = copy();
+    copy.topK = topK;
+    return copy;
+  }
+
+  public EngineConfig withBatchChars(int batchChars) {
+    EngineConfig copy = copy();
+    copy.batchChars = batchChars;
+    return copy;
+  }
+
+  public EngineConfig withQueueBatches(int queueBatches) {
+    EngineConfig copy = copy();
+    copy.queueBatches = queueBatches;
+    return copy;
+  }
+
+  public EngineConfig withPageSplitChars(int pageSplitChars) {
+    EngineConfig copy = copy();
+    copy.pageSplitChars = pageSplitChars;
+    return copy;
+  }
+
+  public EngineConfig withSplitChars(int splitChars) {
+    EngineConfig copy = copy();
+    copy.splitChars = splitChars;
+    return copy;
+  }
+
+  public EngineConfig withMarkup(String markup) {
+    EngineConfig copy = copy();
+    copy.markup = markup;
+    return copy;
+  }
+
+  /**
+   * The page as the engines count it: unchanged, or reduced to prose when
+   * {@code markup} is {@code strip}. Every page handed out by this config has been
+   * through here; readers that open the dump themselves must call it.
+   */
+  Page prepare(Page page) {
+    return stripMarkup() ? WikiText.strip(page) : page;
+  }
+
+  private boolean stripMarkup() {
+    switch (markup) {
+      case "keep":
+        return false;
+      case "strip":
+        return true;
+      default:
+        throw new IllegalArgumentException("Unknown markup mode: " + markup);
+    }
+  }
+
+  /**
+   * Hands at most {@code maxPages} pages to {@code action}. File input is split over
+   * {@code parserThreads} threads, so {@code action} may be called concurrently.
+   */
+  void forEachPage(Consumer<Page> action) {
+    if (stripMarkup()) {
+      Consumer<Page> target = action;
+      action = page -> target.accept(WikiText.strip(page));
+    }
+    if (pages == null && rangeEnd >= 0) {
+      range(parserThreads).forEachParallel(action);
+      return;
+    }
+    if (pages == null) {
+      PartitionedPages.forEachPage(maxPages, fileName, parserThreads, action);
+      return;
+    }
+    int limit = Math.min(maxPages, pages.size());
+    for (int i = 0; i < limit; i++)
+      action.accept(pages.get(i));
+  }
+
+  /**
+   * Splits the input into about {@code count} page streams that can be read concurrently,
+   * sharing the {@code maxPages} budget. Multistream bz2 dumps come back as a single
+   * stream since {@link MultistreamPages} already decodes in parallel. As with
+   * {@link Pages#open}, a {@code null} page ends a stream.
+   */
+  List<Iterable<Page>> partitions(int count) {
+    List<Iterable<Page>> partitions = new ArrayList<>();
+    if (pages != null) {
+      int limit = Math.min(maxPages, pages.size());
+      int step = Math.max(1, (limit + count - 1) / Math.max(1, count));
+      for (int from = 0; from < limit; from += step)
+        partitions.add(pages.subList(from, Math.min(limit, from + step)));
+    } else if (rangeEnd >= 0) {
+      partitions.addAll(range(count).partitions());
+    } else if (PageCache.isCache(fileName)) {
+      partitions.addAll(PageCache.open(fileName).partitions(count, maxPages));
+    } else if (count <= 1 || MultistreamPages.isBzip2(fileName)) {
+      partitions.add(Pages.open(maxPages, fileName));
+    } else {
+      partitions.addAll(new PartitionedPages(maxPages, fileName, count).partitions());
+    }
+    if (stripMarkup())
+      partitions.replaceAll(EngineConfig::stripped);
+    return partitions;
+  }
+
+  // The same stream with every page reduced to prose; the null that ends it passes through
+  private static Iterable<Page> stripped(Iterable<Page> pages) {
+    return () -> {
+      Iterator<Page> iterator = pages.iterator();
+      return new Iterator<Page>() {
+        public boolean hasNext() { return iterator.hasNext(); }
+        public Page next() {
+          Page page = iterator.next();
+          return page == null ? null : WikiText.strip(page);
+        }
+      };
+    };
+  }
+
+  private PartitionedPages range(int count) {
+    if (MultistreamPages.isBzip2(fileName) || PageCache.isCache(fileName))
+      throw new IllegalStateException("Byte ranges need an uncompressed XML dump: " + fileName);
+    return new PartitionedPages(maxPages, fileName, count, rangeStart, rangeEnd);
+  }
+
+  /** Like {@link #forEachPage} but always on the calling thread, in document order. */
+  void forEachPageInOrder(Consumer<Page> action) {
+    withParserThreads(1).forEachPage(action);
+  }
+}
@@ -0,0 +1,83 @@
+package org;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of one engine run: the merged counts, how many pages were counted and how
+ * long the engine's timed section took. Heap usage and off-heap count tables are sampled
+ * when the run completes, together with the stage {@link Metrics} and the process CPU
+ * load recorded since the run started; the top-K list is selected on first use.
+ * {@link #close} frees counts held outside the heap.
+ */
+final class EngineResult implements AutoCloseable {
+
+  private final String engine;
+  private final WordSummary counts;
+  private final int processedPages;
+  private final long elapsedMillis;
+  private final long heapUsedBytes;
+  private final long offHeapBytes;
+  private final Metrics.Snapshot metrics;
+  private final int topK;
+  private List<TopK.WordFrequency> top;
+  private long topKMillis;
+
+  EngineResult(String engine, EngineConfig config, WordSummary counts, int processedPages, long elapsedMillis) {
+    this.engine = engine;
+    this.counts = counts;
+    this.processedPages = processedPages;
+    this.elapsedMillis = elapsedMillis;
+    this.heapUsedBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    this.offHeapBytes = OffHeapCountTable.reservedBytes();
+    this.metrics = Metrics.drain();
+    this.topK = config.getTopK();
+  }
+
+  public String getEngine() { return engine; }
+  public WordSummary getCounts() { return counts; }
+  public int getProcessedPages() { return processedPages; }
+  public long getElapsedMillis() { return elapsedMillis; }
+  public long getHeapUsedBytes() { return heapUsedBytes; }
+  /** Direct memory held by off-heap count tables when the run completed. */
+  public long getOffHeapBytes() { return offHeapBytes; }
+  /** Stage counters of the run, see {@link Metrics}. */
+  public Metrics.Snapshot getMetrics() { return metrics; }
+  /** Share of all cores the process used during the run, in [0, 1], or -1 if unknown. */
+  public double getProcessCpuLoad() { return metrics.processCpuLoad(); }
+
+  /** The {@code topK} most frequent words, most frequent first. */
+  public synchronized List<TopK.WordFrequency> getTop() {
+    if (top == null) {
+      long start = System.currentTimeMillis();
+      top = counts.top(topK);
+      topKMillis = System.currentTimeMillis() - start;
+    }
+    return top;
+  }
+
+  public synchronized long getTopKMillis() {
+    getTop();
+    return topKMillis;
+  }
+
+  /** Prints the run in the engines' report format. */
+  public void print() {
+    System.out.println("Execution Time: " + elapsedMillis + " ms");
+    System.out.println("Heap Memory Used: " + heapUsedBytes + " bytes");
+    if (offHeapBytes > 0)
+      System.out.println("Off-Heap Memory Used: " + offHeapBytes + " bytes");
+    double cpuLoad = metrics.processCpuLoad();
+    System.out.println("Process CPU Load: " + (cpuLoad < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f%%", cpuLoad * 100)));
+    System.out.println("Processed Pages: " + processedPages);
+    metrics.print();
+    counts.report(topK);
+  }
+
+  /** Releases the counts; the result must not be printed or queried afterwards. */
+  @Override
+  public void close() {
+    counts.release();
+  }
+}
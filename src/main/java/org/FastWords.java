@@ -0,0 +1,241 @@
+package org;
+
+import java.text.BreakIterator;
+import java.text.StringCharacterIterator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Tokenizer with a hand-written fast path for ASCII and Latin text. It reproduces the
+ * word segments of {@link BreakIterator#getWordInstance()} (letters and digits joined by
+ * {@code ' " - . _} between letters and by {@code ' " , .} between digits, {@code # $ .}
+ * prefixes and {@code % &} suffixes on numbers), but only
+ * returns segments that contain a letter or digit and that pass the usual
+ * {@code length() > 1 || "a" || "I"} filter. Whitespace-delimited chunks holding any
+ * other script are handed to a {@code BreakIterator}, so non-Latin text is still
+ * segmented with the full Unicode rules.
+ *
+ * <p>The iterator returns the same mutable {@link Window} for every token; copy it with
+ * {@code toString()} if it has to outlive the next call to {@code next()}.
+ */
+class FastWords implements Iterable<CharSequence> {
+
+  private final String text;
+
+  public FastWords(String text) {
+    this.text = text;
+  }
+
+  /**
+   * A view of {@code text[start, end)} that is re-pointed for every token.
+   */
+  static final class Window implements CharSequence {
+    String text;
+    int start;
+    int end;
+
+    public int length() { return end - start; }
+    public char charAt(int index) { return text.charAt(start + index); }
+    public CharSequence subSequence(int from, int to) { return text.substring(start + from, start + to); }
+    @Override public String toString() { return text.substring(start, end); }
+  }
+
+  static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+        || (c >= '\u00C0' && c <= '\u024F' && c != '\u00D7' && c != '\u00F7');
+  }
+
+  static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  // Characters the fast path can classify exactly like BreakIterator does
+  static boolean isFastPath(char c) {
+    return c < 0x80 || isLetter(c);
+  }
+
+  static boolean isSeparator(char c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+  }
+
+  static boolean isMidLetter(char c) {
+    return c == '\'' || c == '-' || c == '.' || c == '_' || c == '"';
+  }
+
+  static boolean isMidNum(char c) {
+    return c == '\'' || c == ',' || c == '.' || c == '"';
+  }
+
+  static boolean isNumberPrefix(char c) {
+    return c == '#' || c == '$' || c == '.';
+  }
+
+  static boolean isNumberSuffix(char c) {
+    return c == '%' || c == '&';
+  }
+
+  static boolean accept(String text, int start, int end) {
+    int length = end - start;
+    if (length > 1)
+      return true;
+    char c = text.charAt(start);
+    return c == 'a' || c == 'I';
+  }
+
+  /**
+   * Returns the end of the word that starts at {@code start}, which must be a letter,
+   * a digit or a number prefix followed by a digit; {@code limit} bounds the chunk.
+   */
+  static int scanWord(String text, int start, int limit) {
+    int i = start;
+    if (isNumberPrefix(text.charAt(i)))
+      ++i;
+    while (true) {
+      while (i < limit && (isLetter(text.charAt(i)) || isDigit(text.charAt(i))))
+        ++i;
+      if (i >= limit)
+        return i;
+      char c = text.charAt(i);
+      char previous = text.charAt(i - 1);
+      if (i + 1 < limit) {
+        char following = text.charAt(i + 1);
+        if (isMidLetter(c) && isLetter(previous) && isLetter(following)) {
+          i += 2;
+          continue;
+        }
+        if (isMidNum(c) && isDigit(previous) && isDigit(following)) {
+          i += 2;
+          continue;
+        }
+      }
+      if (isNumberSuffix(c) && isDigit(previous))
+        ++i;
+      return i;
+    }
+  }
+
+  /**
+   * Segments one whitespace-delimited chunk that the fast path cannot classify with a
+   * {@code BreakIterator}, returning the segments that pass {@link #accept} and hold a
+   * letter or digit.
+   */
+  static final class Fallback {
+    private final BreakIterator wordBoundary = BreakIterator.getWordInstance();
+    private String text;
+    private int boundary;
+
+    void start(String text, int from, int to) {
+      this.text = text;
+      wordBoundary.setText(new StringCharacterIterator(text, from, to, from));
+      boundary = wordBoundary.first();
+    }
+
+    /** Points {@code window} at the next word of the chunk; false at its end. */
+    boolean next(Window window) {
+      for (int end = wordBoundary.next(); end != BreakIterator.DONE; end = wordBoundary.next()) {
+        int start = boundary;
+        boundary = end;
+        if (!accept(text, start, end))
+          continue;
+        for (int i = start; i < end; i++) {
+          if (Character.isLetterOrDigit(text.charAt(i))) {
+            window.start = start;
+            window.end = end;
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private class WordIterator implements Iterator<CharSequence> {
+
+    private final Window window = new Window();
+    private final int length = text.length();
+    private int position;
+    private boolean ready;
+    // End of the current all-Latin chunk handled by the fast path
+    private int fastChunkEnd;
+    // Unicode fallback for the current chunk
+    private Fallback fallback;
+    private int chunkEnd = -1;
+
+    WordIterator() {
+      window.text = text;
+    }
+
+    public boolean hasNext() {
+      if (!ready)
+        ready = advance();
+      return ready;
+    }
+
+    public CharSequence next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      ready = false;
+      return window;
+    }
+
+    private boolean advance() {
+      while (true) {
+        if (chunkEnd >= 0) {
+          if (fallback.next(window))
+            return true;
+          position = chunkEnd;
+          chunkEnd = -1;
+        }
+        if (position >= length)
+          return false;
+        char c = text.charAt(position);
+        if (isSeparator(c)) {
+          ++position;
+          continue;
+        }
+        if (position >= fastChunkEnd && !enterChunk())
+          continue;
+        if (isLetter(c) || isDigit(c)
+            || (isNumberPrefix(c) && position + 1 < fastChunkEnd && isDigit(text.charAt(position + 1)))) {
+          int start = position;
+          position = scanWord(text, start, fastChunkEnd);
+          if (accept(text, start, position)) {
+            window.start = start;
+            window.end = position;
+            return true;
+          }
+        } else {
+          ++position;
+        }
+      }
+    }
+
+    // Classifies the chunk starting at position; returns false if it went to the fallback
+    private boolean enterChunk() {
+      boolean fast = true;
+      int end = position;
+      while (end < length) {
+        char c = text.charAt(end);
+        if (isSeparator(c))
+          break;
+        fast &= isFastPath(c);
+        ++end;
+      }
+      if (fast) {
+        fastChunkEnd = end;
+        return true;
+      }
+      if (fallback == null)
+        fallback = new Fallback();
+      fallback.start(text, position, end);
+      chunkEnd = end;
+      return false;
+    }
+
+    public void remove() { throw new UnsupportedOperationException(); }
+  }
+
+  public Iterator<CharSequence> iterator() {
+    return new WordIterator();
+  }
+}
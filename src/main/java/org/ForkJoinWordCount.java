@@ -1,116 +1,129 @@
 package org;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryUsage;
-import java.lang.management.OperatingSystemMXBean;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveTask;
-import java.util.stream.Collectors;
 
-public class ForkJoinWordCount {
-    // Configurable parameters for scalability analysis
-    static final int MAX_PAGES = 100000;
-    static final String FILE_NAME = System.getProperty("fileName", "enwiki.xml");
-    static int THRESHOLD = 1000;
+public class ForkJoinWordCount implements WordCountEngine {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
         System.out.println("-----------------------------------------------------");
         System.out.println("=== Fork Join ===");
-        System.out.printf("Processing file: %s%n", FILE_NAME);
+        System.out.printf("Processing file: %s%n", config.describeSource());
         System.out.println("-----------------------------------------------------");
 
-        // Load all pages into a list
-        List<Page> pages = new ArrayList<>();
-        for (Page page : new Pages(MAX_PAGES, FILE_NAME)) {
-            if (page == null) {
-                break;
-            }
-            pages.add(page);
-        }
-
-        ForkJoinPool pool = new ForkJoinPool();
-
-        long start = System.currentTimeMillis();
-        WordCountTask task = new WordCountTask(pages, 0, pages.size());
-        Map<String, Integer> result = pool.invoke(task);
-        long end = System.currentTimeMillis();
-
-        long executionTime = end - start;
-        System.out.println("Execution Time: " + executionTime + " ms");
-
-        // Record memory usage
-        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
-        MemoryUsage heapUsage = memoryBean.getHeapMemoryUsage();
-        System.out.println("Heap Memory Used: " + heapUsage.getUsed() + " bytes");
-    
-        // Record CPU usage
-        OperatingSystemMXBean osBean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-        double processCpuLoad = osBean.getSystemLoadAverage();
-        System.out.println("Process CPU Load: " + processCpuLoad * 100 + "%");
+        new ForkJoinWordCount().run(config).print();
+    }
 
-        // Sorting and displaying the most common words
-        LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-        result.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(x -> commonWords.put(x.getKey(), x.getValue()));
+    @Override
+    public String name() {
+        return "ForkJoin";
+    }
 
-        commonWords.entrySet().stream().limit(3).toList()
-                .forEach(x -> System.out
-                        .println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
+    @Override
+    public EngineResult run(EngineConfig config) {
+        // The stage metrics of the run include loading the pages, which the timer leaves out
+        Metrics.reset();
+        // Load all pages into a list
+        List<Page> loaded = Collections.synchronizedList(new ArrayList<>());
+        config.forEachPage(loaded::add);
+        List<Page> pages = new ArrayList<>(loaded);
+
+        ForkJoinPool pool = new ForkJoinPool(config.getThreadCount());
+        try {
+            long start = System.currentTimeMillis();
+            // N-gram ids of this run; every summary of the task tree shares them
+            SymbolTable symbols = new SymbolTable();
+            // Fixed-size summaries are kept per pool thread rather than one per task
+            ThreadSummaries shared = ThreadSummaries.perThread(config.getCountMode())
+                    ? new ThreadSummaries(config.getCountMode(), symbols) : null;
+            WordCountTask task = new WordCountTask(pages, 0, pages.size(), config, symbols, shared);
+            WordSummary result = pool.invoke(task);
+            if (shared != null)
+                result = shared.combined();
+            long end = System.currentTimeMillis();
+
+            return new EngineResult(name(), config, result, pages.size(), end - start);
+        } finally {
+            pool.shutdown();
+        }
     }
 
-    static class WordCountTask extends RecursiveTask<Map<String, Integer>> {
+    static class WordCountTask extends RecursiveTask<WordSummary> {
         private final List<Page> pages;
         private final int start, end;
+        private final EngineConfig config;
+        private final SymbolTable symbols;
+        private final ThreadSummaries shared;
 
-        public WordCountTask(List<Page> pages, int start, int end) {
+        public WordCountTask(List<Page> pages, int start, int end, EngineConfig config, SymbolTable symbols,
+                             ThreadSummaries shared) {
             this.pages = pages;
             this.start = start;
             this.end = end;
+            this.config = config;
+            this.symbols = symbols;
+            this.shared = shared;
         }
 
         @Override
-        protected Map<String, Integer> compute() {
+        protected WordSummary compute() {
             int size = end - start;
-            if (size <= THRESHOLD) {
+            if (size <= config.getThreshold()) {
                 return processPages();
             } else {
                 int mid = start + size / 2;
-                WordCountTask leftTask = new WordCountTask(pages, start, mid);
-                WordCountTask rightTask = new WordCountTask(pages, mid, end);
+                WordCountTask leftTask = new WordCountTask(pages, start, mid, config, symbols, shared);
+                WordCountTask rightTask = new WordCountTask(pages, mid, end, config, symbols, shared);
 
                 invokeAll(leftTask, rightTask);
-                Map<String, Integer> leftResult = leftTask.join();
-                Map<String, Integer> rightResult = rightTask.join();
+                WordSummary leftResult = leftTask.join();
+                WordSummary rightResult = rightTask.join();
 
                 return mergeCounts(leftResult, rightResult);
             }
         }
 
-        private Map<String, Integer> processPages() {
-            Map<String, Integer> counts = new HashMap<>();
+        private WordSummary processPages() {
+            WordSummary counts = shared != null ? shared.local() : WordSummary.create(config.getCountMode(), symbols);
+            List<PageSplits.CountParts> splitPages = new ArrayList<>();
+            long begin = System.nanoTime();
+            long tokens = 0;
+            long chars = 0;
             for (int i = start; i < end; i++) {
-                for (String word : new Words(pages.get(i).getText())) {
-                    if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                        counts.merge(word, 1, Integer::sum);
-                    }
+                Page page = pages.get(i);
+                // A very long page is forked in parts, so idle workers can steal the rest of it
+                if (PageSplits.shouldSplit(page.getText(), config.getPageSplitChars())) {
+                    List<Page> parts = PageSplits.parts(page, config.getPageSplitChars());
+                    PageSplits.CountParts task = new PageSplits.CountParts(parts, 0, parts.size(), config.getCountMode(), symbols, shared);
+                    task.fork();
+                    splitPages.add(task);
+                    continue;
                 }
+                tokens += counts.incrementAll(Words.tokens(page.getText()));
+                chars += page.getText().length();
+            }
+            if (splitPages.size() < end - start) {
+                Metrics.batchCounted(end - start - splitPages.size(), chars, tokens, begin);
+            }
+            if (shared != null) {
+                // The split pages count into the threads' own summaries too
+                for (PageSplits.CountParts task : splitPages)
+                    task.join();
+                return null;
+            }
+            for (PageSplits.CountParts task : splitPages) {
+                counts = mergeCounts(counts, task.join());
             }
             return counts;
         }
 
-        private Map<String, Integer> mergeCounts(Map<String, Integer> left, Map<String, Integer> right) {
-            for (Map.Entry<String, Integer> entry : right.entrySet()) {
-                left.merge(entry.getKey(), entry.getValue(), Integer::sum);
-            }
-            return left;
+        private WordSummary mergeCounts(WordSummary left, WordSummary right) {
+            // Exact tables fold the smaller into the larger; null when counted per thread
+            return ThreadSummaries.combine(left, right);
         }
     }
 }
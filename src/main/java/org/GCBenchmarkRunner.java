@@ -1,121 +1,318 @@
 package org;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.GarbageCollectorMXBean;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.function.ToDoubleFunction;
 
 /**
- * GCBenchmarkRunner runs different word-count strategies under various GC configurations.
- * It captures GC metrics (collection count and time) before and after each run, and prints
- * a comparative summary of execution time and GC statistics for each strategy.
+ * GCBenchmarkRunner runs the word-count strategies over a matrix of GC, heap size and
+ * thread count settings. Every cell of the matrix gets its own child JVM
+ * ({@link BenchmarkFork}), started with the corresponding {@code -XX:+Use...GC},
+ * {@code -Xms/-Xmx} and {@code -DthreadCount}; the child runs warmup iterations before
+ * the measured ones. The child also inherits the {@code -D} settings,
+ * {@code -XX:MaxDirectMemorySize} and {@code --add-modules} options of this JVM. Wall
+ * time, allocation rate and GC pauses are summarised with median, p95 and a 95%
+ * confidence interval, printed as a table and written as CSV and JSON files that can be
+ * diffed between releases. The footprint of the counts is reported as the heap in use
+ * after a collection at the end of each run and the direct memory of off-heap count
+ * tables ({@code -DcountMode=offheap} / {@code -DcountBackend=offheap}).
+ *
+ * <p>Settings (system properties):
+ * <ul>
+ *   <li>{@code bench.engines}: engine names, default all</li>
+ *   <li>{@code bench.gcs}: {@code Serial,Parallel,G1,Z} (default), or {@code Shenandoah}</li>
+ *   <li>{@code bench.heaps}: heap sizes, default {@code 2g}</li>
+ *   <li>{@code bench.threads}: thread counts, default {@code threadCount} or the number of processors</li>
+ *   <li>{@code bench.warmup} / {@code bench.iterations}: iterations per fork, default 2 / 5</li>
+ *   <li>{@code bench.fork}: {@code false} runs every engine in this JVM, under its own GC</li>
+ *   <li>{@code bench.output}: path prefix of the {@code .csv} and {@code .json} results</li>
+ * </ul>
+ * Every other {@code -D} option (fileName, maxPages, tokenizer, ...) is passed on to the forks.
  */
 public class GCBenchmarkRunner {
-    public static void main(String[] args) {
-        // Gather GC beans and system info
-        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
-        Set<String> gcNames = new HashSet<>();
-        for (GarbageCollectorMXBean gc : gcBeans) {
-            gcNames.add(gc.getName());
+
+    private static final String[] DEFAULT_GCS = {"Serial", "Parallel", "G1", "Z"};
+
+    public static void main(String[] args) throws Exception {
+        List<WordCountEngine> engines = new ArrayList<>();
+        String engineNames = System.getProperty("bench.engines");
+        if (engineNames == null) {
+            engines.addAll(WordCountEngine.all());
+        } else {
+            for (String name : list(engineNames))
+                engines.add(WordCountEngine.forName(name));
         }
-        int processors = Runtime.getRuntime().availableProcessors();
-        long maxHeapBytes = Runtime.getRuntime().maxMemory();
-        long maxHeapMB = maxHeapBytes / (1024 * 1024);
+        boolean fork = Boolean.parseBoolean(System.getProperty("bench.fork", "true"));
+        List<String> gcs = fork ? list(System.getProperty("bench.gcs", String.join(",", DEFAULT_GCS)))
+                : Arrays.asList(currentGc());
+        List<String> heaps = fork ? list(System.getProperty("bench.heaps", "2g"))
+                : Arrays.asList(Runtime.getRuntime().maxMemory() / (1024 * 1024) + "m");
+        List<String> threads = list(System.getProperty("bench.threads",
+                String.valueOf(Integer.getInteger("threadCount", Runtime.getRuntime().availableProcessors()))));
+        int warmup = Integer.getInteger("bench.warmup", 2);
+        int iterations = Integer.getInteger("bench.iterations", 5);
+        String output = System.getProperty("bench.output", "benchmark-results");
 
-        // Print header with GC, CPU, and memory info
+        // Print header with CPU and matrix info
         System.out.println("=== GCBenchmarkRunner ===");
-        System.out.printf("GC in use: %s%n", String.join(", ", gcNames));
-        System.out.printf("Available processors: %-2d | Max heap: %-4d MB%n", processors, maxHeapMB);
+        System.out.printf("Available processors: %-2d | Forked JVMs: %s%n",
+                Runtime.getRuntime().availableProcessors(), fork);
+        System.out.printf("GCs: %s | Heaps: %s | Threads: %s | Warmup: %d | Iterations: %d%n",
+                gcs, heaps, threads, warmup, iterations);
         System.out.println("-----------------------------------------------------");
         System.out.println("Running benchmarks...");
+        System.out.printf("%-18s %-9s %-6s %4s %10s %10s %21s %10s %8s %9s %9s %8s %8s%n", "Strategy", "GC", "Heap",
+                "Thr", "Median(ms)", "p95(ms)", "Mean 95% CI(ms)", "Alloc MB/s", "Pauses", "p95 pause", "Max pause",
+                "Heap MB", "Off MB");
 
-        // Run benchmarks for each strategy
-        runBenchmark("Sequential", () -> {
-            try {
-                WordCount.main(args);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        List<BenchmarkCell> cells = new ArrayList<>();
+        for (String gc : gcs) {
+            for (String heap : heaps) {
+                for (String threadCount : threads) {
+                    for (WordCountEngine engine : engines) {
+                        BenchmarkCell cell = new BenchmarkCell(engine.name(), gc, heap, Integer.parseInt(threadCount));
+                        try {
+                            cell.iterations = fork ? runFork(cell, warmup, iterations)
+                                    : BenchmarkFork.run(engine, EngineConfig.fromSystemProperties()
+                                            .withThreadCount(cell.threads), warmup, iterations);
+                        } catch (Exception e) {
+                            cell.error = e.getMessage();
+                        }
+                        cells.add(cell);
+                        cell.print();
+                    }
+                }
             }
-        });
+        }
 
-        runBenchmark("WithoutThreadPool", () -> {
-            try {
-                MultiThreadWithoutThreadPoolWordCount.main(args);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        writeCsv(cells, output + ".csv");
+        writeJson(cells, output + ".json");
+        System.out.println("-----------------------------------------------------");
+        System.out.println("Results written to " + output + ".csv and " + output + ".json");
+    }
+
+    /**
+     * Runs one cell of the matrix in a child JVM and collects its measured iterations.
+     * @param cell Strategy, GC, heap size and thread count of the fork
+     * @param warmup Iterations run before measuring
+     * @param iterations Measured iterations
+     */
+    private static List<BenchmarkFork.Iteration> runFork(BenchmarkCell cell, int warmup, int iterations)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(gcFlag(cell.gc));
+        command.add("-Xms" + cell.heap);
+        command.add("-Xmx" + cell.heap);
+        List<String> arguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (argument.startsWith("-D") && !argument.startsWith("-Dbench.") && !argument.startsWith("-DthreadCount="))
+                command.add(argument);
+            // The off-heap count tables would otherwise be limited by the fork's -Xmx
+            else if (argument.startsWith("-XX:MaxDirectMemorySize="))
+                command.add(argument);
+            // Without jdk.incubator.vector a fork would silently count -Dtokenizer=vector with the fast tokenizer
+            else if (argument.startsWith("--add-modules="))
+                command.add(argument);
+            else if (argument.equals("--add-modules") && i + 1 < arguments.size()) {
+                command.add(argument);
+                command.add(arguments.get(++i));
             }
-        });
+        }
+        command.add("-DthreadCount=" + cell.threads);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BenchmarkFork.class.getName());
+        command.add(cell.engine);
+        command.add(String.valueOf(warmup));
+        command.add(String.valueOf(iterations));
 
-        runBenchmark("WithThreadPool", () -> {
-            try {
-                MultiThreadWithThreadPoolWordCount.main(args);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<BenchmarkFork.Iteration> measured = new ArrayList<>();
+        List<String> log = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(BenchmarkFork.PREFIX))
+                    measured.add(BenchmarkFork.Iteration.parse(line.substring(BenchmarkFork.PREFIX.length())));
+                else if (log.size() < 20)
+                    log.add(line);
             }
-        });
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || measured.isEmpty())
+            throw new IOException("fork exited with " + exitCode + ": " + String.join(" | ", log));
+        return measured;
+    }
+
+    private static String gcFlag(String gc) {
+        switch (gc.toLowerCase(Locale.ROOT)) {
+            case "serial": return "-XX:+UseSerialGC";
+            case "parallel": return "-XX:+UseParallelGC";
+            case "g1": return "-XX:+UseG1GC";
+            case "z": case "zgc": return "-XX:+UseZGC";
+            case "shenandoah": return "-XX:+UseShenandoahGC";
+            default: throw new IllegalArgumentException("Unknown GC: " + gc);
+        }
+    }
 
-        runBenchmark("ForkJoin", () -> {
-            try {
-                ForkJoinWordCount.main(args);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+    private static String currentGc() {
+        Set<String> gcNames = new HashSet<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcNames.add(gc.getName());
+        }
+        return String.join("+", gcNames);
+    }
+
+    private static List<String> list(String values) {
+        List<String> items = new ArrayList<>();
+        for (String value : values.split(","))
+            if (!value.trim().isEmpty())
+                items.add(value.trim());
+        return items;
+    }
+
+    private static void writeCsv(List<BenchmarkCell> cells, String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("engine,gc,heap,threads,iterations,wall_median_ms,wall_p95_ms,wall_mean_ms,wall_ci95_ms,"
+                    + "alloc_median_mb_s,gc_count_mean,gc_time_mean_ms,pause_count,pause_median_ms,pause_p95_ms,pause_max_ms,"
+                    + "heap_median_mb,offheap_median_mb,error");
+            for (BenchmarkCell cell : cells) {
+                if (cell.error != null) {
+                    out.printf(Locale.ROOT, "%s,%s,%s,%d,0,,,,,,,,,,,,,,\"%s\"%n", cell.engine, cell.gc, cell.heap,
+                            cell.threads, cell.error.replace("\"", "\"\""));
+                    continue;
+                }
+                BenchmarkStats wall = cell.wall();
+                BenchmarkStats pauses = cell.pauses();
+                out.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.1f,%.2f,%.3f,%d,%.3f,%.3f,%.3f,%.1f,%.1f,%n",
+                        cell.engine, cell.gc, cell.heap, cell.threads, wall.count(), wall.median(), wall.percentile(95),
+                        wall.mean(), wall.confidenceHalfWidth(), cell.allocation().median(), cell.gcCount().mean(),
+                        cell.gcTime().mean(), pauses.count(), nan(pauses.median()), nan(pauses.percentile(95)),
+                        nan(pauses.max()), cell.heapFootprint().median(), cell.offHeapFootprint().median());
             }
-        });
+        }
+    }
 
-        runBenchmark("CompletableFuture", () -> {
-            try {
-                CompletableFutureWordCount.main(args);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+    private static void writeJson(List<BenchmarkCell> cells, String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.println("[");
+            for (int c = 0; c < cells.size(); c++) {
+                BenchmarkCell cell = cells.get(c);
+                out.printf(Locale.ROOT, "  {\"engine\": \"%s\", \"gc\": \"%s\", \"heap\": \"%s\", \"threads\": %d",
+                        cell.engine, cell.gc, cell.heap, cell.threads);
+                if (cell.error != null) {
+                    out.printf(", \"error\": \"%s\"}", cell.error.replace("\\", "\\\\").replace("\"", "\\\""));
+                } else {
+                    BenchmarkStats wall = cell.wall();
+                    BenchmarkStats pauses = cell.pauses();
+                    out.printf(Locale.ROOT, ",%n    \"wallMs\": {\"median\": %.3f, \"p95\": %.3f, \"mean\": %.3f, \"ci95\": %.3f},",
+                            wall.median(), wall.percentile(95), wall.mean(), wall.confidenceHalfWidth());
+                    out.printf(Locale.ROOT, "%n    \"allocMBPerSec\": {\"median\": %.1f, \"p95\": %.1f},",
+                            cell.allocation().median(), cell.allocation().percentile(95));
+                    out.printf(Locale.ROOT, "%n    \"gcPausesMs\": {\"count\": %d, \"median\": %.3f, \"p95\": %.3f, \"max\": %.3f},",
+                            pauses.count(), nan(pauses.median()), nan(pauses.percentile(95)), nan(pauses.max()));
+                    out.printf(Locale.ROOT, "%n    \"footprintMB\": {\"heap\": %.1f, \"offHeap\": %.1f},",
+                            cell.heapFootprint().median(), cell.offHeapFootprint().median());
+                    out.print("\n    \"iterations\": [");
+                    for (int i = 0; i < cell.iterations.size(); i++) {
+                        BenchmarkFork.Iteration iteration = cell.iterations.get(i);
+                        out.printf(Locale.ROOT, "%s{\"wallMs\": %.3f, \"pages\": %d, \"allocatedBytes\": %d, \"gcCount\": %d, \"gcMs\": %.3f, "
+                                + "\"heapBytes\": %d, \"offHeapBytes\": %d}",
+                                i == 0 ? "" : ", ", iteration.wallMillis, iteration.pages, iteration.allocatedBytes,
+                                iteration.gcCount, iteration.gcMillis, iteration.heapBytes, iteration.offHeapBytes);
+                    }
+                    out.print("]}");
+                }
+                out.println(c + 1 < cells.size() ? "," : "");
             }
-        });
+            out.println("]");
+        }
     }
 
-    /**
-     * Runs a single strategy, measuring GC before/after and execution time.
-     * @param name Name of the strategy (for reporting)
-     * @param strategy A Runnable that executes the word-count strategy
-     */
-    private static void runBenchmark(String name, Runnable strategy) {
-        // Snapshot GC metrics before execution
-        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
-        long totalCountBefore = 0;
-        long totalTimeBefore = 0;
-        for (GarbageCollectorMXBean gc : gcBeans) {
-            long count = gc.getCollectionCount();
-            long time = gc.getCollectionTime();
-            totalCountBefore += (count < 0 ? 0 : count);
-            totalTimeBefore += (time < 0 ? 0 : time);
-        }
-
-        long startTime = System.currentTimeMillis();
-        // Run the strategy
-        try {
-            strategy.run();
-        } catch (Throwable t) {
-            System.err.println("Error running strategy " + name);
-            t.printStackTrace();
-        }
-        long elapsed = System.currentTimeMillis() - startTime;
-
-        // Snapshot GC metrics after execution
-        long totalCountAfter = 0;
-        long totalTimeAfter = 0;
-        for (GarbageCollectorMXBean gc : gcBeans) {
-            long count = gc.getCollectionCount();
-            long time = gc.getCollectionTime();
-            totalCountAfter += (count < 0 ? 0 : count);
-            totalTimeAfter += (time < 0 ? 0 : time);
-        }
-
-        // Calculate deltas
-        long gcCountDelta = totalCountAfter - totalCountBefore;
-        long gcTimeDelta = totalTimeAfter - totalTimeBefore;
-
-        // Print header for strategy results
-        System.out.printf("%-20s %12s %12s %12s%n", "Strategy", "Time(ms)", "GC Count", "GC Time(ms)");
-        // Print data row
-        System.out.printf("%-20s %12d %12d %12d%n", name, elapsed, gcCountDelta, gcTimeDelta);
+    // Missing values (no pauses at all) are written as 0 rather than NaN, which is not valid JSON
+    private static double nan(double value) {
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    /** One strategy under one GC, heap size and thread count. */
+    private static class BenchmarkCell {
+        final String engine;
+        final String gc;
+        final String heap;
+        final int threads;
+        List<BenchmarkFork.Iteration> iterations = new ArrayList<>();
+        String error;
+
+        BenchmarkCell(String engine, String gc, String heap, int threads) {
+            this.engine = engine;
+            this.gc = gc;
+            this.heap = heap;
+            this.threads = threads;
+        }
+
+        BenchmarkStats wall() {
+            return stats(iteration -> iteration.wallMillis);
+        }
+
+        BenchmarkStats allocation() {
+            return stats(BenchmarkFork.Iteration::allocationRate);
+        }
+
+        BenchmarkStats gcCount() {
+            return stats(iteration -> iteration.gcCount);
+        }
+
+        BenchmarkStats gcTime() {
+            return stats(iteration -> iteration.gcMillis);
+        }
+
+        BenchmarkStats heapFootprint() {
+            return stats(iteration -> iteration.heapBytes / (1024.0 * 1024.0));
+        }
+
+        BenchmarkStats offHeapFootprint() {
+            return stats(iteration -> iteration.offHeapBytes / (1024.0 * 1024.0));
+        }
+
+        // Every pause of every measured iteration
+        BenchmarkStats pauses() {
+            List<Double> all = new ArrayList<>();
+            for (BenchmarkFork.Iteration iteration : iterations)
+                for (double pause : iteration.pauseMillis)
+                    all.add(pause);
+            return new BenchmarkStats(all.stream().mapToDouble(Double::doubleValue).toArray());
+        }
+
+        private BenchmarkStats stats(ToDoubleFunction<BenchmarkFork.Iteration> metric) {
+            return new BenchmarkStats(iterations.stream().mapToDouble(metric).toArray());
+        }
+
+        void print() {
+            if (error != null) {
+                System.out.printf("%-18s %-9s %-6s %4d  failed: %s%n", engine, gc, heap, threads, error);
+                return;
+            }
+            BenchmarkStats wall = wall();
+            BenchmarkStats pauses = pauses();
+            System.out.printf(Locale.ROOT, "%-18s %-9s %-6s %4d %10.1f %10.1f %12.1f +/- %5.1f %10.1f %8d %9.2f %9.2f %8.1f %8.1f%n",
+                    engine, gc, heap, threads, wall.median(), wall.percentile(95), wall.mean(),
+                    wall.confidenceHalfWidth(), allocation().median(), pauses.count(),
+                    nan(pauses.percentile(95)), nan(pauses.max()), heapFootprint().median(), offHeapFootprint().median());
+        }
     }
 }
@@ -0,0 +1,60 @@
+package org;
+
+/**
+ * HyperLogLog distinct counter with 2^precision one-byte registers; the relative
+ * standard error is about {@code 1.04 / sqrt(2^precision)}. Merging takes the
+ * register-wise maximum.
+ */
+final class HyperLogLog {
+
+  private final int precision;
+  private final byte[] registers;
+
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 18)
+      throw new IllegalArgumentException("HyperLogLog precision must be in [4, 18]: " + precision);
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public void add(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    // Rank of the first set bit in the remaining bits; a sentinel bit caps it
+    int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    if (rank > registers[index])
+      registers[index] = (byte) rank;
+  }
+
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision)
+      throw new IllegalArgumentException("HyperLogLog precision differs");
+    for (int i = 0; i < registers.length; i++)
+      if (other.registers[i] > registers[i])
+        registers[i] = other.registers[i];
+  }
+
+  public long estimate() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0)
+        ++zeros;
+    }
+    double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    // Linear counting is more accurate while many registers are still empty
+    if (estimate <= 2.5 * m && zeros > 0)
+      estimate = m * Math.log((double) m / zeros);
+    return Math.round(estimate);
+  }
+
+  public double relativeError() {
+    return 1.04 / Math.sqrt(registers.length);
+  }
+
+  public long bytes() {
+    return registers.length;
+  }
+}
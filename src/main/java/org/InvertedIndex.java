@@ -0,0 +1,378 @@
+package org;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * On-disk inverted index: for every word, the pages it occurs in and how often it occurs
+ * in each. Words are identified by {@link SymbolTable} ids and pages by the order in which
+ * the indexing workers took them. The index directory holds three files, all numbers
+ * written as varints ({@link CountCodec#writeVarint}):
+ *
+ * <ul>
+ *   <li>{@code terms.bin}: the number of terms, then per term in word id order its word
+ *       (length and characters, as in {@link CountCodec}), document frequency, total
+ *       count and the byte length of its postings;
+ *   <li>{@code postings.bin}: the postings of every term in the same order, per page the
+ *       page id minus the previous page id of the term (the first one as is) and the
+ *       word's frequency in that page;
+ *   <li>{@code pages.bin}: the number of pages, then every page title by page id.
+ * </ul>
+ *
+ * <p>Each worker fills its own {@link Postings} buffer and writes it as a run sorted by
+ * word id and page id whenever it holds too many postings; {@link #merge} k-way merges
+ * the runs of all workers into the index, and {@link Reader} looks words up in it.
+ */
+final class InvertedIndex {
+
+  static final String TERMS = "terms.bin";
+  static final String POSTINGS = "postings.bin";
+  static final String PAGES = "pages.bin";
+
+  private InvertedIndex() {
+  }
+
+  /**
+   * One worker's postings since its last run: per word id, (page id, frequency) pairs in
+   * page order. A worker must index its pages in increasing page id order. Not
+   * thread-safe.
+   */
+  static final class Postings {
+    private final SymbolTable symbols;
+    // word -> id + 1, so the shared symbol table is asked once per word
+    private final CountTable ids = new CountTable();
+    private int[][] lists = new int[1024][];
+    private int[] used = new int[1024];
+    // Page id + 1 of the last pair of each list, so a repeated word only bumps its frequency
+    private int[] lastPage = new int[1024];
+    // Word ids with a non-empty list, in first-use order
+    private int[] touched = new int[1024];
+    private int touchedCount;
+    private long pairs;
+
+    Postings(SymbolTable symbols) {
+      this.symbols = symbols;
+    }
+
+    /** Postings held since the last run. */
+    long size() {
+      return pairs;
+    }
+
+    /** Indexes the words of page {@code page}; returns how many there were. */
+    long add(int page, Iterable<CharSequence> words) {
+      long tokens = 0;
+      for (CharSequence word : words) {
+        int id = symbols.id(word, ids);
+        if (id >= used.length)
+          grow(id);
+        ++tokens;
+        if (lastPage[id] == page + 1) {
+          ++lists[id][used[id] - 1];
+          continue;
+        }
+        int[] list = lists[id];
+        int n = used[id];
+        if (n == 0) {
+          if (touchedCount == touched.length)
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+          touched[touchedCount++] = id;
+        }
+        if (list == null)
+          list = lists[id] = new int[4];
+        else if (n == list.length)
+          list = lists[id] = Arrays.copyOf(list, n * 2);
+        list[n] = page;
+        list[n + 1] = 1;
+        used[id] = n + 2;
+        lastPage[id] = page + 1;
+        ++pairs;
+      }
+      return tokens;
+    }
+
+    private void grow(int id) {
+      int capacity = Math.max(used.length * 2, id + 1);
+      lists = Arrays.copyOf(lists, capacity);
+      used = Arrays.copyOf(used, capacity);
+      lastPage = Arrays.copyOf(lastPage, capacity);
+    }
+
+    /**
+     * Writes the postings held so far to {@code file}, by word id and then page id, and
+     * empties the buffer. A run is a sequence of word id + 1, pair count and the
+     * delta-encoded pairs, ended by a 0.
+     */
+    void writeRun(Path file) throws IOException {
+      Arrays.sort(touched, 0, touchedCount);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+        for (int t = 0; t < touchedCount; t++) {
+          int id = touched[t];
+          int[] list = lists[id];
+          int n = used[id];
+          CountCodec.writeVarint(out, id + 1L);
+          CountCodec.writeVarint(out, n / 2);
+          int previous = 0;
+          for (int i = 0; i < n; i += 2) {
+            CountCodec.writeVarint(out, list[i] - previous);
+            CountCodec.writeVarint(out, list[i + 1]);
+            previous = list[i];
+          }
+          lists[id] = null;
+          used[id] = 0;
+        }
+        CountCodec.writeVarint(out, 0);
+      }
+      touchedCount = 0;
+      pairs = 0;
+    }
+  }
+
+  // Sequential reader of one run; word is -1 once the run is exhausted
+  private static final class Run implements Closeable {
+    private final DataInputStream in;
+    int word;
+    int[] pairs = new int[16];
+    int size;
+
+    Run(Path file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+    }
+
+    boolean next() throws IOException {
+      long id = CountCodec.readVarint(in);
+      if (id == 0) {
+        word = -1;
+        return false;
+      }
+      word = (int) (id - 1);
+      size = 2 * (int) CountCodec.readVarint(in);
+      if (size > pairs.length)
+        pairs = new int[Math.max(size, pairs.length * 2)];
+      int page = 0;
+      for (int i = 0; i < size; i += 2) {
+        page += (int) CountCodec.readVarint(in);
+        pairs[i] = page;
+        pairs[i + 1] = (int) CountCodec.readVarint(in);
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** Sizes of a merged index. */
+  static final class Summary {
+    final long terms;
+    final long postings;
+    final long bytes;
+
+    Summary(long terms, long postings, long bytes) {
+      this.terms = terms;
+      this.postings = postings;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Merges the {@code runs} written by the workers into an index in {@code directory},
+   * adds every word's total count to {@code totals} and deletes the runs. Every word id of
+   * {@code symbols} must occur in some run; {@code titles} holds the title of every page id.
+   */
+  static Summary merge(List<Path> runs, SymbolTable symbols, List<String> titles, Path directory,
+      CountTable totals) throws IOException {
+    long start = System.nanoTime();
+    PriorityQueue<Run> heap = new PriorityQueue<>(Math.max(1, runs.size()), Comparator.comparingInt((Run run) -> run.word));
+    List<Run> open = new ArrayList<>();
+    long terms = 0;
+    long postings = 0;
+    try (DataOutputStream termsOut = output(directory.resolve(TERMS));
+        DataOutputStream postingsOut = output(directory.resolve(POSTINGS))) {
+      for (Path file : runs) {
+        Run run = new Run(file);
+        open.add(run);
+        if (run.next())
+          heap.add(run);
+      }
+      int words = symbols.size();
+      CountCodec.writeVarint(termsOut, words);
+      long[] merged = new long[16];
+      List<Run> same = new ArrayList<>();
+      ByteArrayOutputStream termPostings = new ByteArrayOutputStream();
+      DataOutputStream termOut = new DataOutputStream(termPostings);
+      while (!heap.isEmpty()) {
+        int word = heap.peek().word;
+        // Runs of different workers interleave their page ids; gather and sort the pairs
+        int size = 0;
+        same.clear();
+        while (!heap.isEmpty() && heap.peek().word == word) {
+          Run run = heap.poll();
+          same.add(run);
+          if (size + run.size / 2 > merged.length)
+            merged = Arrays.copyOf(merged, Math.max(size + run.size / 2, merged.length * 2));
+          for (int i = 0; i < run.size; i += 2)
+            merged[size++] = (long) run.pairs[i] << 32 | run.pairs[i + 1];
+        }
+        if (same.size() > 1)
+          Arrays.sort(merged, 0, size);
+        termPostings.reset();
+        long count = 0;
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+          long page = merged[i] >>> 32;
+          int frequency = (int) merged[i];
+          CountCodec.writeVarint(termOut, page - previous);
+          CountCodec.writeVarint(termOut, frequency);
+          previous = page;
+          count += frequency;
+        }
+        termPostings.writeTo(postingsOut);
+        if (word != terms)
+          throw new IOException("Runs have no postings for word id " + terms);
+        String text = symbols.word(word);
+        CountCodec.writeVarint(termsOut, text.length());
+        for (int i = 0; i < text.length(); i++)
+          CountCodec.writeVarint(termsOut, text.charAt(i));
+        CountCodec.writeVarint(termsOut, size);
+        CountCodec.writeVarint(termsOut, count);
+        CountCodec.writeVarint(termsOut, termPostings.size());
+        totals.add(text, count);
+        ++terms;
+        postings += size;
+        for (Run run : same)
+          if (run.next())
+            heap.add(run);
+      }
+      if (terms != words)
+        throw new IOException("Runs hold " + terms + " of " + words + " words");
+    } finally {
+      for (Run run : open)
+        run.close();
+    }
+    try (DataOutputStream out = output(directory.resolve(PAGES))) {
+      CountCodec.writeVarint(out, titles.size());
+      for (String title : titles)
+        out.writeUTF(title == null ? "" : title);
+    }
+    for (Path file : runs)
+      Files.delete(file);
+    Metrics.merged(postings, start);
+    return new Summary(terms, postings, Files.size(directory.resolve(TERMS))
+        + Files.size(directory.resolve(POSTINGS)) + Files.size(directory.resolve(PAGES)));
+  }
+
+  private static DataOutputStream output(Path file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+  }
+
+  /** Looks words up in an index written by {@link #merge}. */
+  static final class Reader implements Closeable {
+
+    // Offset and byte length in postings.bin, document frequency and total count
+    private static final class Term {
+      final long offset;
+      final int bytes;
+      final int documents;
+      final long count;
+
+      Term(long offset, int bytes, int documents, long count) {
+        this.offset = offset;
+        this.bytes = bytes;
+        this.documents = documents;
+        this.count = count;
+      }
+    }
+
+    private final Map<String, Term> terms;
+    private final String[] titles;
+    private final FileChannel postings;
+
+    Reader(Path directory) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(TERMS))))) {
+        int size = (int) CountCodec.readVarint(in);
+        terms = new HashMap<>(size * 4 / 3 + 1);
+        long offset = 0;
+        for (int t = 0; t < size; t++) {
+          char[] word = new char[(int) CountCodec.readVarint(in)];
+          for (int i = 0; i < word.length; i++)
+            word[i] = (char) CountCodec.readVarint(in);
+          int documents = (int) CountCodec.readVarint(in);
+          long count = CountCodec.readVarint(in);
+          int bytes = (int) CountCodec.readVarint(in);
+          terms.put(new String(word), new Term(offset, bytes, documents, count));
+          offset += bytes;
+        }
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(PAGES))))) {
+        titles = new String[(int) CountCodec.readVarint(in)];
+        for (int p = 0; p < titles.length; p++)
+          titles[p] = in.readUTF();
+      }
+      postings = FileChannel.open(directory.resolve(POSTINGS));
+    }
+
+    int terms() {
+      return terms.size();
+    }
+
+    /** Number of pages {@code word} occurs in. */
+    int documentFrequency(String word) {
+      Term term = terms.get(word);
+      return term == null ? 0 : term.documents;
+    }
+
+    long count(String word) {
+      Term term = terms.get(word);
+      return term == null ? 0 : term.count;
+    }
+
+    /** The (page id, frequency) pairs of {@code word}, flattened in page order. */
+    int[] postings(String word) throws IOException {
+      Term term = terms.get(word);
+      if (term == null)
+        return new int[0];
+      ByteBuffer buffer = ByteBuffer.allocate(term.bytes);
+      while (buffer.hasRemaining())
+        if (postings.read(buffer, term.offset + buffer.position()) < 0)
+          throw new IOException("Postings of '" + word + "' are truncated");
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+      int[] pairs = new int[2 * term.documents];
+      int page = 0;
+      for (int i = 0; i < pairs.length; i += 2) {
+        page += (int) CountCodec.readVarint(in);
+        pairs[i] = page;
+        pairs[i + 1] = (int) CountCodec.readVarint(in);
+      }
+      return pairs;
+    }
+
+    String title(int page) {
+      return titles[page];
+    }
+
+    @Override
+    public void close() throws IOException {
+      postings.close();
+    }
+  }
+}
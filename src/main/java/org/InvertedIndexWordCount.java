@@ -0,0 +1,163 @@
+package org;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counts words and builds an {@link InvertedIndex} of them in the same pass. The parser
+ * fills a {@link PagePipeline} as for {@link MultiThreadWithoutThreadPoolWordCount}; each
+ * worker numbers the pages of a batch it takes, records the postings of every word in
+ * its own {@link InvertedIndex.Postings} and writes them as a sorted run every
+ * {@code runPostings} postings. Once the input is exhausted the runs are k-way merged
+ * into the index in {@code directory}, and the word counts are taken from the merged
+ * postings. Pages are never split, since a page must keep one id.
+ */
+public class InvertedIndexWordCount implements WordCountEngine {
+
+    private final Path directory;
+    private final long runPostings;
+
+    InvertedIndexWordCount(Path directory, long runPostings) {
+        this.directory = directory;
+        this.runPostings = runPostings;
+    }
+
+    static InvertedIndexWordCount fromSystemProperties() {
+        return new InvertedIndexWordCount(Paths.get(System.getProperty("invertedIndex", "inverted-index")),
+                Long.getLong("runPostings", 1L << 22));
+    }
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        InvertedIndexWordCount engine = fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Inverted Index ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Index: %s, runs of %d postings%n", engine.directory, engine.runPostings);
+        System.out.println("-----------------------------------------------------");
+
+        engine.run(config).print();
+
+        String lookup = System.getProperty("lookup");
+        if (lookup != null)
+            engine.lookup(Arrays.asList(lookup.split(",")));
+    }
+
+    @Override
+    public String name() {
+        return "InvertedIndex";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+
+        PagePipeline pipeline = new PagePipeline(config.getQueueBatches(), config.getBatchChars(), 0);
+        SymbolTable symbols = new SymbolTable();
+        AtomicInteger nextPage = new AtomicInteger();
+        AtomicInteger nextRun = new AtomicInteger();
+        AtomicLong chars = new AtomicLong();
+        // Titles of every batch, by the id of its first page
+        ConcurrentSkipListMap<Integer, String[]> titles = new ConcurrentSkipListMap<>();
+        List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < config.getThreadCount(); i++) {
+            Thread worker = new Thread(() -> {
+                InvertedIndex.Postings postings = new InvertedIndex.Postings(symbols);
+                try {
+                    List<Page> batch;
+                    while ((batch = pipeline.take()) != null) {
+                        // Ids taken in order, so every worker sees its pages in increasing id order
+                        int first = nextPage.getAndAdd(batch.size());
+                        String[] batchTitles = new String[batch.size()];
+                        long begin = System.nanoTime();
+                        long tokens = 0;
+                        long batchChars = 0;
+                        for (int p = 0; p < batch.size(); p++) {
+                            Page page = batch.get(p);
+                            batchTitles[p] = page.getTitle();
+                            tokens += postings.add(first + p, Words.tokens(page.getText()));
+                            batchChars += page.getText().length();
+                        }
+                        Metrics.batchCounted(batch.size(), batchChars, tokens, begin);
+                        chars.addAndGet(batchChars);
+                        titles.put(first, batchTitles);
+                        if (postings.size() >= runPostings)
+                            writeRun(postings, nextRun, runs);
+                    }
+                    if (postings.size() > 0)
+                        writeRun(postings, nextRun, runs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure.compareAndSet(null, e);
+                    pipeline.abort();
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    pipeline.abort();
+                }
+            }, "index-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        try {
+            pipeline.produce(config);
+        } catch (RuntimeException e) {
+            // A worker failure aborts the pipeline, which the parser sees as its own error
+            failure.compareAndSet(null, e);
+        } finally {
+            for (Thread worker : workers)
+                worker.join();
+        }
+        if (failure.get() != null)
+            throw new IllegalStateException("Indexing failed", failure.get());
+
+        List<String> pageTitles = new ArrayList<>(nextPage.get());
+        for (String[] batchTitles : titles.values())
+            pageTitles.addAll(Arrays.asList(batchTitles));
+        long mergeStart = System.currentTimeMillis();
+        CountTable counts = new CountTable();
+        InvertedIndex.Summary index = InvertedIndex.merge(runs, symbols, pageTitles, directory, counts);
+        long end = System.currentTimeMillis();
+
+        long input = config.isInMemory() ? chars.get() : Files.size(Paths.get(config.getFileName()));
+        System.out.printf(Locale.ROOT, "Index: %d terms, %d postings from %d runs in %s | %.1f MB, %.1f%% of the %.1f MB input | merge %d ms%n",
+                index.terms, index.postings, runs.size(), directory, index.bytes / 1e6,
+                input == 0 ? 0 : 100.0 * index.bytes / input, input / 1e6, end - mergeStart);
+        return new EngineResult(name(), config, counts, pageTitles.size(), end - start);
+    }
+
+    private void writeRun(InvertedIndex.Postings postings, AtomicInteger nextRun, List<Path> runs) throws IOException {
+        Path run = directory.resolve("run-" + nextRun.getAndIncrement() + ".bin");
+        postings.writeRun(run);
+        runs.add(run);
+    }
+
+    // Prints the document frequency of each word and the first pages it occurs in
+    private void lookup(List<String> words) throws IOException {
+        try (InvertedIndex.Reader index = new InvertedIndex.Reader(directory)) {
+            for (String word : words) {
+                int[] postings = index.postings(word);
+                System.out.printf("'%s': %d pages, %d occurrences%n", word, index.documentFrequency(word), index.count(word));
+                for (int i = 0; i < Math.min(postings.length, 10); i += 2)
+                    System.out.printf("  %s (%d)%n", index.title(postings[i]), postings[i + 1]);
+            }
+        }
+    }
+}
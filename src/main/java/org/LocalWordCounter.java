@@ -0,0 +1,31 @@
+package org;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Each worker thread counts into its own {@link CountTable}, so counting never
+ * synchronizes; the tables are merged once when the result is requested.
+ */
+class LocalWordCounter implements WordCounter {
+
+  private final Queue<CountTable> tables = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<CountTable> local = ThreadLocal.withInitial(() -> {
+    CountTable table = new CountTable();
+    tables.add(table);
+    return table;
+  });
+
+  @Override
+  public void count(CharSequence word) {
+    local.get().increment(word);
+  }
+
+  @Override
+  public CountTable result() {
+    CountTable merged = new CountTable();
+    for (CountTable table : tables)
+      merged.addAll(table);
+    return merged;
+  }
+}
@@ -0,0 +1,109 @@
+package org;
+
+/**
+ * Open-addressing hash table from {@code long} keys to {@code int} counts, the
+ * primitive counterpart of {@link CountTable} for keys that are already numbers (packed
+ * n-grams of word ids, see {@link NGramCounts}). A slot is free while its count is 0.
+ * Not thread-safe.
+ */
+final class LongIntTable {
+
+  /** Receives one entry of a table. */
+  interface EntryVisitor {
+    void visit(long key, int count);
+  }
+
+  private long[] keys;
+  private int[] counts;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  LongIntTable() {
+    allocate(1024);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    counts = new int[capacity];
+    mask = capacity - 1;
+    resizeAt = capacity * 3 / 5;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Adds {@code delta} (positive) to the count of {@code key}. */
+  void add(long key, int delta) {
+    int slot = hash(key) & mask;
+    while (counts[slot] != 0) {
+      if (keys[slot] == key) {
+        counts[slot] += delta;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    counts[slot] = delta;
+    if (++size > resizeAt)
+      rehash();
+  }
+
+  int get(long key) {
+    for (int slot = hash(key) & mask; counts[slot] != 0; slot = (slot + 1) & mask)
+      if (keys[slot] == key)
+        return counts[slot];
+    return 0;
+  }
+
+  /** Adds every count of {@code other} to this table. */
+  void addAll(LongIntTable other) {
+    long start = System.nanoTime();
+    for (int slot = 0; slot < other.counts.length; slot++)
+      if (other.counts[slot] != 0)
+        add(other.keys[slot], other.counts[slot]);
+    Metrics.merged(other.size, start);
+  }
+
+  /** Merges two tables, reusing the larger one; either argument may be returned. */
+  static LongIntTable merge(LongIntTable left, LongIntTable right) {
+    if (left.size < right.size) {
+      right.addAll(left);
+      return right;
+    }
+    left.addAll(right);
+    return left;
+  }
+
+  void forEach(EntryVisitor visitor) {
+    for (int slot = 0; slot < counts.length; slot++)
+      if (counts[slot] != 0)
+        visitor.visit(keys[slot], counts[slot]);
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldCounts = counts;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldCounts[i] == 0)
+        continue;
+      int slot = hash(oldKeys[i]) & mask;
+      while (counts[slot] != 0)
+        slot = (slot + 1) & mask;
+      keys[slot] = oldKeys[i];
+      counts[slot] = oldCounts[i];
+    }
+  }
+
+  // Murmur3 finalizer: packed ids differ mostly in their low bits of each field
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
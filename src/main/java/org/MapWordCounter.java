@@ -0,0 +1,25 @@
+package org;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The original shared-map counting: every worker merges into one {@code ConcurrentHashMap}.
+ */
+class MapWordCounter implements WordCounter {
+
+  private final ConcurrentHashMap<String, Integer> counts = new ConcurrentHashMap<>();
+
+  @Override
+  public void count(CharSequence word) {
+    counts.merge(word.toString(), 1, Integer::sum);
+  }
+
+  @Override
+  public CountTable result() {
+    CountTable table = new CountTable(counts.size());
+    for (Map.Entry<String, Integer> entry : counts.entrySet())
+      table.add(entry.getKey(), entry.getValue());
+    return table;
+  }
+}
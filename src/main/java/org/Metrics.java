@@ -0,0 +1,323 @@
+package org;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Per-stage counters shared by all engines: parsing ({@link CursorPages}, {@link Pages}),
+ * tokenizing and counting a batch (the engines' counting loops), waiting on the
+ * {@link PagePipeline}, and merging count tables. Every stage also emits a JFR event
+ * in the "Word Count" category, so a flight recording shows which stage dominates a
+ * run; the events cost nothing unless a recording enables them.
+ *
+ * <p>The counters are process-wide and count in windows. Every engine starts a new
+ * window with {@link #reset} when its run starts, and {@link EngineResult} ends it with
+ * {@link #drain} when the run completes. Work done between two runs in one JVM, such
+ * as a benchmark's setup, is not reported with either of them.
+ */
+final class Metrics {
+
+  private static final LongAdder PAGES_PARSED = new LongAdder();
+  private static final LongAdder CHARS_PARSED = new LongAdder();
+  private static final LongAdder PARSE_NANOS = new LongAdder();
+  private static final LongAdder BATCHES = new LongAdder();
+  private static final LongAdder TOKENS = new LongAdder();
+  private static final LongAdder CHARS_COUNTED = new LongAdder();
+  private static final Histogram BATCH_NANOS = new Histogram();
+  private static final Histogram IDLE_NANOS = new Histogram();
+  private static final LongAdder BLOCKED_NANOS = new LongAdder();
+  private static final Histogram QUEUE_DEPTH = new Histogram();
+  private static final Histogram MERGE_NANOS = new Histogram();
+  private static final LongAdder ENTRIES_MERGED = new LongAdder();
+
+  private static final com.sun.management.OperatingSystemMXBean PROCESS = processBean();
+  private static final Object WINDOW_LOCK = new Object();
+  private static long windowStart = System.nanoTime();
+  private static long windowCpuStart = processCpuNanos();
+
+  private Metrics() {
+  }
+
+  /** A page was read; {@code startNanos} is when the reader started on it. */
+  static void pageParsed(long startNanos, int chars) {
+    long nanos = System.nanoTime() - startNanos;
+    PAGES_PARSED.increment();
+    CHARS_PARSED.add(chars);
+    PARSE_NANOS.add(nanos);
+    PageParsed event = new PageParsed();
+    if (event.shouldCommit()) {
+      event.chars = chars;
+      event.parseTime = nanos;
+      event.commit();
+    }
+  }
+
+  /** A worker tokenized and counted {@code pages} pages (or page parts) since {@code startNanos}. */
+  static void batchCounted(int pages, long chars, long tokens, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    BATCHES.increment();
+    TOKENS.add(tokens);
+    CHARS_COUNTED.add(chars);
+    BATCH_NANOS.record(nanos);
+    BatchCounted event = new BatchCounted();
+    if (event.shouldCommit()) {
+      event.pages = pages;
+      event.chars = chars;
+      event.tokens = tokens;
+      event.countTime = nanos;
+      event.commit();
+    }
+  }
+
+  /**
+   * A worker ({@code producer == false}) waited for a batch, or the parser
+   * ({@code producer == true}) waited for room, for {@code nanos}; {@code depth} is the
+   * number of batches queued when the wait ended.
+   */
+  static void queueWait(boolean producer, long nanos, int depth) {
+    if (producer)
+      BLOCKED_NANOS.add(nanos);
+    else
+      IDLE_NANOS.record(nanos);
+    QueueWait event = new QueueWait();
+    if (event.shouldCommit()) {
+      event.producer = producer;
+      event.waitTime = nanos;
+      event.depth = depth;
+      event.commit();
+    }
+  }
+
+  /** Queue depth seen by a worker taking a batch, waiting or not. */
+  static void queueDepth(int depth) {
+    QUEUE_DEPTH.record(depth);
+  }
+
+  /** {@code entries} words of one table were merged into another since {@code startNanos}. */
+  static void merged(long entries, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    ENTRIES_MERGED.add(entries);
+    MERGE_NANOS.record(nanos);
+    Merge event = new Merge();
+    if (event.shouldCommit()) {
+      event.entries = entries;
+      event.mergeTime = nanos;
+      event.commit();
+    }
+  }
+
+  /** Drops what was recorded so far and starts a new window. */
+  static void reset() {
+    drain();
+  }
+
+  /** What was recorded since the window started; starts a new window. */
+  static Snapshot drain() {
+    synchronized (WINDOW_LOCK) {
+      long now = System.nanoTime();
+      long cpu = processCpuNanos();
+      Snapshot snapshot = new Snapshot(now - windowStart, cpu < 0 ? -1 : cpu - windowCpuStart);
+      windowStart = now;
+      windowCpuStart = cpu;
+      return snapshot;
+    }
+  }
+
+  private static com.sun.management.OperatingSystemMXBean processBean() {
+    OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    return bean instanceof com.sun.management.OperatingSystemMXBean
+        ? (com.sun.management.OperatingSystemMXBean) bean : null;
+  }
+
+  // CPU time of all threads of this JVM, or -1 where the platform does not report it
+  private static long processCpuNanos() {
+    return PROCESS == null ? -1 : PROCESS.getProcessCpuTime();
+  }
+
+  /** Stage totals of one window. Rates are per second of the window's wall time. */
+  static final class Snapshot {
+    final long wallNanos;
+    final long cpuNanos;
+    final long pagesParsed = PAGES_PARSED.sumThenReset();
+    final long charsParsed = CHARS_PARSED.sumThenReset();
+    final long parseNanos = PARSE_NANOS.sumThenReset();
+    final long batches = BATCHES.sumThenReset();
+    final long tokens = TOKENS.sumThenReset();
+    final long charsCounted = CHARS_COUNTED.sumThenReset();
+    final Histogram.Summary batchNanos = BATCH_NANOS.drain();
+    final Histogram.Summary idleNanos = IDLE_NANOS.drain();
+    final long blockedNanos = BLOCKED_NANOS.sumThenReset();
+    final Histogram.Summary queueDepth = QUEUE_DEPTH.drain();
+    final Histogram.Summary mergeNanos = MERGE_NANOS.drain();
+    final long entriesMerged = ENTRIES_MERGED.sumThenReset();
+
+    private Snapshot(long wallNanos, long cpuNanos) {
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+    }
+
+    /**
+     * Share of all cores this process used during the window, in [0, 1], or -1 if the
+     * platform does not report process CPU time.
+     */
+    double processCpuLoad() {
+      if (cpuNanos < 0 || wallNanos <= 0)
+        return -1;
+      return Math.min(1.0, cpuNanos / (double) wallNanos / Runtime.getRuntime().availableProcessors());
+    }
+
+    private double perSecond(double amount) {
+      return wallNanos <= 0 ? 0 : amount * 1e9 / wallNanos;
+    }
+
+    void print() {
+      System.out.println("Stages (wall time " + millis(wallNanos) + " ms):");
+      System.out.printf(Locale.ROOT, "  Parse:  %d pages, %.1f MB in %d ms of reader time | %.0f pages/s, %.2f MB/s%n",
+          pagesParsed, charsParsed / 1e6, millis(parseNanos), perSecond(pagesParsed), perSecond(charsParsed) / 1e6);
+      System.out.printf(Locale.ROOT, "  Count:  %d batches, %d tokens, %.1f MB in %d ms of worker time | %.0f tokens/s, %.2f MB/s | batch p50 %.2f ms, p99 %.2f ms%n",
+          batches, tokens, charsCounted / 1e6, millis(batchNanos.sum), perSecond(tokens), perSecond(charsCounted) / 1e6,
+          batchNanos.percentile(0.5) / 1e6, batchNanos.percentile(0.99) / 1e6);
+      if (idleNanos.count > 0 || queueDepth.count > 0)
+        System.out.printf(Locale.ROOT, "  Queue:  depth mean %.1f, max %d | workers idle %d ms in %d waits (p99 %.2f ms) | parser blocked %d ms%n",
+            queueDepth.mean(), queueDepth.max, millis(idleNanos.sum), idleNanos.count, idleNanos.percentile(0.99) / 1e6,
+            millis(blockedNanos));
+      System.out.printf(Locale.ROOT, "  Merge:  %d merges, %d entries in %d ms, longest %.2f ms%n",
+          mergeNanos.count, entriesMerged, millis(mergeNanos.sum), mergeNanos.max / 1e6);
+    }
+
+    private static long millis(long nanos) {
+      return nanos / 1_000_000;
+    }
+  }
+
+  /**
+   * Lock-free histogram of non-negative values in power-of-two buckets: bucket b holds
+   * values in [2^(b-1), 2^b), so percentiles are exact to within a factor of two.
+   */
+  static final class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+      long v = Math.max(0, value);
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+      count.increment();
+      sum.add(v);
+      max.accumulateAndGet(v, Math::max);
+    }
+
+    // Values recorded while draining may land in either window
+    Summary drain() {
+      long[] counts = new long[buckets.length()];
+      for (int b = 0; b < counts.length; b++)
+        counts[b] = buckets.getAndSet(b, 0);
+      return new Summary(counts, count.sumThenReset(), sum.sumThenReset(), max.getAndSet(0));
+    }
+
+    static final class Summary {
+      private final long[] buckets;
+      final long count;
+      final long sum;
+      final long max;
+
+      Summary(long[] buckets, long count, long sum, long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+      }
+
+      double mean() {
+        return count == 0 ? 0 : sum / (double) count;
+      }
+
+      /** Upper bound of the bucket holding the {@code p} quantile, capped at the maximum. */
+      long percentile(double p) {
+        long total = 0;
+        for (long bucket : buckets)
+          total += bucket;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+          seen += buckets[b];
+          if (seen >= rank && seen > 0)
+            return b == 0 ? 0 : Math.min(max, b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+        }
+        return max;
+      }
+    }
+  }
+
+  @Name("org.wordcount.PageParsed")
+  @Label("Page Parsed")
+  @Category("Word Count")
+  @Description("One page read from the dump by an XML reader")
+  static final class PageParsed extends Event {
+    @Label("Characters")
+    long chars;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+  }
+
+  @Name("org.wordcount.BatchCounted")
+  @Label("Batch Tokenized")
+  @Category("Word Count")
+  @Description("A batch of pages tokenized and counted by one worker")
+  static final class BatchCounted extends Event {
+    @Label("Pages")
+    int pages;
+
+    @Label("Characters")
+    long chars;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Count Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long countTime;
+  }
+
+  @Name("org.wordcount.QueueWait")
+  @Label("Queue Wait")
+  @Category("Word Count")
+  @Description("A worker waiting for a batch, or the parser waiting for room in the page pipeline")
+  static final class QueueWait extends Event {
+    @Label("Parser Side")
+    boolean producer;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+
+    @Label("Queued Batches")
+    int depth;
+  }
+
+  @Name("org.wordcount.Merge")
+  @Label("Merge")
+  @Category("Word Count")
+  @Description("The entries of one count table merged into another")
+  static final class Merge extends Event {
+    @Label("Entries")
+    long entries;
+
+    @Label("Merge Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long mergeTime;
+  }
+}
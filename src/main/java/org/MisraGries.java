@@ -0,0 +1,59 @@
+package org;
+
+import java.util.Arrays;
+
+/**
+ * Misra-Gries heavy-hitter summary. Counters live in a {@link CountTable} that may grow
+ * to twice the capacity; it is then pruned by subtracting the (capacity+1)-th largest
+ * count from every counter, which keeps the amortized cost per word constant. A stored
+ * counter is a lower bound of the true count and undercounts by at most
+ * {@link #maxError()}, which stays below {@code total / (capacity + 1)}. Two summaries
+ * merge by adding counters and pruning once more.
+ */
+final class MisraGries {
+
+  private final int capacity;
+  private CountTable counters;
+  private long maxError;
+
+  public MisraGries(int capacity) {
+    this.capacity = capacity;
+    this.counters = new CountTable(capacity * 2);
+  }
+
+  public void add(CharSequence word) {
+    counters.increment(word);
+    if (counters.size() > capacity * 2)
+      prune();
+  }
+
+  public void merge(MisraGries other) {
+    counters.addEntries(other.counters);
+    maxError += other.maxError;
+    if (counters.size() > capacity)
+      prune();
+  }
+
+  private void prune() {
+    long[] values = new long[counters.size()];
+    int[] next = {0};
+    counters.forEach((chars, offset, length, count) -> values[next[0]++] = count);
+    Arrays.sort(values);
+    long cut = values[values.length - capacity - 1];
+    counters = counters.pruned(cut);
+    maxError += cut;
+  }
+
+  public CountTable counters() {
+    return counters;
+  }
+
+  public long maxError() {
+    return maxError;
+  }
+
+  public long bytes() {
+    // Slot arrays plus, on average, eight characters per key
+    return counters.capacity() * 20L + counters.size() * 16L;
+  }
+}
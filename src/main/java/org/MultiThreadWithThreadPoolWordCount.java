@@ -1,98 +1,116 @@
 package org;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryUsage;
-import java.lang.management.OperatingSystemMXBean;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
-public class MultiThreadWithThreadPoolWordCount {
-    static final int MAX_PAGES = 100000;
-    static final String FILE_NAME = System.getProperty("fileName", "enwiki.xml");
-    static int THREAD_COUNT = System.getProperty("threadCount") != null
-            ? Integer.parseInt(System.getProperty("threadCount"))
-            : Runtime.getRuntime().availableProcessors();
+public class MultiThreadWithThreadPoolWordCount implements WordCountEngine {
 
-    // Use a thread-safe collection for counting words
-    private static final ConcurrentHashMap<String, Integer> counts = new ConcurrentHashMap<>();
-
-    // Executor service for managing thread pool
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
-
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
         System.out.println("-----------------------------------------------------");
         System.out.println("=== Multi Thread With ThreadPool ===");
-        System.out.printf("Processing file: %s%n", FILE_NAME);
-        System.out.printf("Number of threads: %d%n", THREAD_COUNT);
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Count backend: %s%n", config.getCountBackend());
         System.out.println("-----------------------------------------------------");
 
+        new MultiThreadWithThreadPoolWordCount().run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "WithThreadPool";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws InterruptedException {
+        // Thread-safe word counting, see WordCounter.create for the backends
+        WordCounter counter = WordCounter.create(config.getCountBackend(), config.getThreadCount());
+
+        // Executor service for managing thread pool
+        ExecutorService executorService = Executors.newFixedThreadPool(config.getThreadCount());
+
+        Metrics.reset();
         long start = System.currentTimeMillis();
-        Iterable<Page> pages = new Pages(MAX_PAGES, FILE_NAME);
         AtomicInteger processedPages = new AtomicInteger(0); // Thread-safe counter
 
-        // Submit tasks to the thread pool for processing pages
-        for (Page page : pages) {
-            executorService.submit(() -> {
-                // Count words for the page
-                Iterable<String> words = new Words(page.getText());
-                for (String word : words) {
-                    if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                        countWord(word);
+        // Bounded, batched hand-off: the parser blocks when the workers fall behind
+        PagePipeline pipeline = PagePipeline.forConfig(config);
+
+        // One long-running task per pool thread, each counting page batches until the input ends
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < config.getThreadCount(); i++) {
+            workers.add(executorService.submit(() -> {
+                try {
+                    List<Page> batch;
+                    while ((batch = pipeline.take()) != null) {
+                        // Count words for the pages of the batch
+                        long begin = System.nanoTime();
+                        long tokens = 0;
+                        long chars = 0;
+                        for (Page page : batch) {
+                            for (CharSequence word : Words.tokens(page.getText())) {
+                                counter.count(word);
+                                ++tokens;
+                            }
+                            chars += page.getText().length();
+                        }
+                        Metrics.batchCounted(batch.size(), chars, tokens, begin);
+                        processedPages.addAndGet(PagePipeline.pages(batch));
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    pipeline.abort();
+                } catch (RuntimeException | Error e) {
+                    pipeline.abort();
+                    throw e;
                 }
-                processedPages.incrementAndGet();
-            });
+            }));
         }
 
-        // Wait for all tasks to complete
-        executorService.shutdown();
+        // Parse on this thread and feed the batches to the pool
+        RuntimeException parseFailure = null;
+        boolean finished = false;
         try {
-            if (!executorService.awaitTermination(60, TimeUnit.MINUTES)) {
+            pipeline.produce(config);
+        } catch (RuntimeException e) {
+            // A worker failure aborts the pipeline, which the parser sees as its own error
+            parseFailure = e;
+        } finally {
+            // Wait for all tasks to complete
+            executorService.shutdown();
+            try {
+                finished = executorService.awaitTermination(60, TimeUnit.MINUTES);
+                if (!finished) {
+                    executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
                 executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!finished)
+            throw new IllegalStateException("Word count did not finish", parseFailure);
+        // A worker that failed after the parser was done must not leave partial counts behind
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Word count failed", e.getCause());
             }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
         }
+        if (parseFailure != null)
+            throw parseFailure;
 
         // Record end time and calculate execution time
         long end = System.currentTimeMillis();
-        long executionTime = end - start;
-        System.out.println("Execution Time: " + executionTime + " ms");
-
-        // Record memory usage
-        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
-        MemoryUsage heapUsage = memoryBean.getHeapMemoryUsage();
-        System.out.println("Heap Memory Used: " + heapUsage.getUsed() + " bytes");
-    
-        // Record CPU usage
-        OperatingSystemMXBean osBean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-        double processCpuLoad = osBean.getSystemLoadAverage();
-        System.out.println("Process CPU Load: " + processCpuLoad * 100 + "%");
-
-        // Report number of processed pages.
-        System.out.println("Processed Pages: " + processedPages.get());
-
-        // Sorting and displaying the most common words
-        LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-        counts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(x -> commonWords.put(x.getKey(), x.getValue()));
-
-        commonWords.entrySet().stream().limit(3).toList()
-                .forEach(x -> System.out
-                        .println("Word: '" + x.getKey() + "' with total " + x.getValue() + " occurrences!"));
-    }
 
-    // Thread-safe word counting
-    private static void countWord(String word) {
-        counts.merge(word, 1, Integer::sum);
+        return new EngineResult(name(), config, counter.result(), processedPages.get(), end - start);
     }
 }
@@ -1,57 +1,54 @@
 package org;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryUsage;
-import java.lang.management.OperatingSystemMXBean;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class MultiThreadWithoutThreadPoolWordCount {
-    // Configurable parameters for scalability analysis
-    static final int MAX_PAGES = 100000;
-    static final String FILE_NAME = System.getProperty("fileName", "enwiki.xml");
-    static int THREAD_COUNT = System.getProperty("threadCount") != null
-            ? Integer.parseInt(System.getProperty("threadCount"))
-            : Runtime.getRuntime().availableProcessors();
-
-    // Shared queue for pages
-    private static final LinkedList<Page> pageQueue = new LinkedList<>();
-    // Lock object for synchronizing access to the queue
-    private static final Object queueLock = new Object();
-    // Flag to signal when the producer has finished
-    private static final AtomicBoolean producerDone = new AtomicBoolean(false);
-    // Counter for the number of processed pages
-    private static final AtomicInteger processedPages = new AtomicInteger(0);
-    // A list to collect local counts from each consumer thread
-    private static final List<Map<String, Integer>> consumerLocalCounts = Collections
-            .synchronizedList(new ArrayList<>());
+public class MultiThreadWithoutThreadPoolWordCount implements WordCountEngine {
 
     public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
         System.out.println("-----------------------------------------------------");
         System.out.println("=== Multi Thread Without ThreadPool ===");
-        System.out.printf("Processing file: %s%n", FILE_NAME);
-        System.out.printf("Number of threads: %d%n", THREAD_COUNT);
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
         System.out.println("-----------------------------------------------------");
 
+        new MultiThreadWithoutThreadPoolWordCount().run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "WithoutThreadPool";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws InterruptedException {
+        Metrics.reset();
         // Record start time
         long start = System.currentTimeMillis();
 
+        // Bounded queue of page batches between the producer and the consumers
+        PagePipeline pipeline = PagePipeline.forConfig(config);
+        // Counter for the number of processed pages
+        AtomicInteger processedPages = new AtomicInteger(0);
+        // A list to collect local counts from each consumer thread
+        List<WordSummary> consumerLocalCounts = Collections.synchronizedList(new ArrayList<>());
+        // First failure of the producer or a consumer; the run fails instead of returning partial counts
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // N-gram ids of this run; every consumer's counts share them
+        SymbolTable symbols = new SymbolTable();
+
         // Create and start the producer thread
-        Thread producer = new Thread(new Producer());
+        Thread producer = new Thread(new Producer(pipeline, config, failure));
         producer.start();
 
         // Create and start consumer threads
         List<Thread> consumers = new ArrayList<>();
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            Thread consumer = new Thread(new Consumer());
+        for (int i = 0; i < config.getThreadCount(); i++) {
+            Thread consumer = new Thread(new Consumer(pipeline, config, symbols, processedPages, consumerLocalCounts, failure));
             consumer.start();
             consumers.add(consumer);
         }
@@ -61,118 +58,120 @@ public class MultiThreadWithoutThreadPoolWordCount {
         for (Thread consumer : consumers) {
             consumer.join();
         }
+        if (failure.get() != null) {
+            for (WordSummary localCounts : consumerLocalCounts) {
+                localCounts.release();
+            }
+            throw new IllegalStateException("Word count failed", failure.get());
+        }
 
         // Merge all consumer local counts into a global map
-        Map<String, Integer> globalCounts = mergeLocalCounts();
+        WordSummary globalCounts = mergeLocalCounts(config, symbols, consumerLocalCounts);
 
         // Record end time and calculate execution time
         long end = System.currentTimeMillis();
-        long executionTime = end - start;
-        System.out.println("Execution Time: " + executionTime + " ms");
-
-        // Record memory usage
-        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
-        MemoryUsage heapUsage = memoryBean.getHeapMemoryUsage();
-        System.out.println("Heap Memory Used: " + heapUsage.getUsed() + " bytes");
-
-        // Record CPU usage
-        OperatingSystemMXBean osBean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-        double processCpuLoad = osBean.getSystemLoadAverage();
-        System.out.println("Process CPU Load: " + processCpuLoad * 100 + "%");
-
-        // Report number of processed pages.
-        System.out.println("Processed Pages: " + processedPages.get());
-
-        // Sort and print the top 3 most common words
-        globalCounts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(3)
-                .forEach(entry -> System.out
-                        .println("Word: '" + entry.getKey() + "' with total " + entry.getValue() + " occurrences!"));
+
+        return new EngineResult(name(), config, globalCounts, processedPages.get(), end - start);
     }
 
     // Merge local count maps from each consumer into one global map
-    private static Map<String, Integer> mergeLocalCounts() {
-        Map<String, Integer> globalCounts = new HashMap<>();
-        for (Map<String, Integer> localCounts : consumerLocalCounts) {
-            for (Map.Entry<String, Integer> entry : localCounts.entrySet()) {
-                globalCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
-            }
+    private static WordSummary mergeLocalCounts(EngineConfig config, SymbolTable symbols,
+                                                List<WordSummary> consumerLocalCounts) {
+        WordSummary globalCounts = WordSummary.create(config.getCountMode(), symbols);
+        for (WordSummary localCounts : consumerLocalCounts) {
+            globalCounts = globalCounts.combine(localCounts);
         }
         return globalCounts;
     }
 
-    // Producer: reads pages from the XML file and enqueues them
+    // Producer: reads pages from the XML file and enqueues them in batches
     static class Producer implements Runnable {
+        private final PagePipeline pipeline;
+        private final EngineConfig config;
+        private final AtomicReference<Throwable> failure;
+
+        Producer(PagePipeline pipeline, EngineConfig config, AtomicReference<Throwable> failure) {
+            this.pipeline = pipeline;
+            this.config = config;
+            this.failure = failure;
+        }
+
         @Override
         public void run() {
             try {
-                Iterable<Page> pages = new Pages(MAX_PAGES, FILE_NAME);
-                for (Page page : pages) {
-                    if (page == null) {
-                        break;
-                    }
-                    synchronized (queueLock) {
-                        pageQueue.add(page);
-                        queueLock.notifyAll(); // Notify waiting consumers
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                producerDone.set(true);
-                synchronized (queueLock) {
-                    queueLock.notifyAll(); // Wake up waiting consumers on completion
-                }
+                // Blocks while the pipeline is full; closing it lets the consumers drain and exit
+                pipeline.produce(config);
+            } catch (RuntimeException | Error e) {
+                // After a consumer failure this is the pipeline abort; the consumer's cause was recorded first
+                failure.compareAndSet(null, e);
             }
         }
     }
 
-    // Consumer: dequeues pages, tokenizes text, and counts words
+    // Consumer: dequeues page batches, tokenizes text, and counts words
     static class Consumer implements Runnable {
+        private final PagePipeline pipeline;
+        private final EngineConfig config;
+        private final SymbolTable symbols;
+        private final AtomicInteger processedPages;
+        private final List<WordSummary> consumerLocalCounts;
+        private final AtomicReference<Throwable> failure;
+
+        Consumer(PagePipeline pipeline, EngineConfig config, SymbolTable symbols, AtomicInteger processedPages,
+                 List<WordSummary> consumerLocalCounts, AtomicReference<Throwable> failure) {
+            this.pipeline = pipeline;
+            this.config = config;
+            this.symbols = symbols;
+            this.processedPages = processedPages;
+            this.consumerLocalCounts = consumerLocalCounts;
+            this.failure = failure;
+        }
+
         @Override
         public void run() {
             // Each consumer maintains its own local word count map
-            Map<String, Integer> localCounts = new HashMap<>();
-            while (true) {
-                Page page;
-                synchronized (queueLock) {
-                    // Wait while the queue is empty and the producer hasn't finished
-                    while (pageQueue.isEmpty() && !producerDone.get()) {
-                        try {
-                            queueLock.wait(); // Wait for pages to be available
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-
-                    // If the queue is empty and the producer is done, exit
-                    if (pageQueue.isEmpty() && producerDone.get()) {
-                        break;
+            WordSummary localCounts = null;
+            try {
+                localCounts = WordSummary.create(config.getCountMode(), symbols);
+                // Wait for batches until the producer is done and the pipeline is empty
+                List<Page> batch;
+                while ((batch = pipeline.take()) != null) {
+                    long begin = System.nanoTime();
+                    long tokens = 0;
+                    long chars = 0;
+                    for (Page page : batch) {
+                        tokens += processPage(page, localCounts);
+                        chars += page.getText().length();
                     }
-
-                    page = pageQueue.removeFirst();
-                }
-
-                if (page != null) {
-                    processPage(page, localCounts);
-                    processedPages.incrementAndGet();
+                    Metrics.batchCounted(batch.size(), chars, tokens, begin);
+                    processedPages.addAndGet(PagePipeline.pages(batch));
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+                release(localCounts);
+                return;
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+                release(localCounts);
+                return;
             }
             // After processing, store the local counts in the shared list
             consumerLocalCounts.add(localCounts);
         }
 
-        private void processPage(Page page, Map<String, Integer> localCounts) {
-            // Tokenize the page's text using the Words iterator
-            Iterable<String> words = new Words(page.getText());
-            for (String word : words) {
-                // Filter words: count those longer than one character or if it's "a" or "I"
-                if (word.length() > 1 || word.equals("a") || word.equals("I")) {
-                    localCounts.merge(word, 1, Integer::sum);
-                }
+        private static void release(WordSummary localCounts) {
+            if (localCounts != null) {
+                localCounts.release();
             }
         }
+
+        // Returns the number of words counted
+        private long processPage(Page page, WordSummary localCounts) {
+            // Tokenize the page's text; only words longer than one character, "a" and "I" come back
+            return localCounts.incrementAll(Words.tokens(page.getText()));
+        }
     }
 }
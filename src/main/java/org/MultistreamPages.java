@@ -0,0 +1,285 @@
+package org;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a Wikipedia {@code pages-articles-multistream*.xml*.bz2} dump without
+ * decompressing it to disk. Such dumps are a concatenation of independent bzip2
+ * streams of (usually) 100 pages each, so the streams are decompressed and parsed on
+ * a pool of decoder threads while the iterator hands out the finished page batches in
+ * file order. Stream offsets come from the companion {@code multistream-index} file
+ * when it exists, otherwise the file is scanned for bzip2 stream headers. A stream is
+ * decompressed in one piece, so a stream larger than {@link #MAX_STREAM_BYTES} (e.g. a
+ * dump compressed as a single stream) fails the read instead of exhausting the heap.
+ */
+class MultistreamPages implements Iterable<Page> {
+
+  private static final byte[] BLOCK_MAGIC = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+  private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE_END = "</page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ROOT_START = "<mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ROOT_END = "</mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final int SCAN_BUFFER = 1024 * 1024;
+  // Compressed size of the largest stream decoded; Wikipedia's hold 100 pages, well below 1 MB
+  static final long MAX_STREAM_BYTES = 64L << 20;
+
+  private final int maxPages;
+  private final String fileName;
+  private final int decoderThreads;
+
+  public MultistreamPages(int maxPages, String fileName, int decoderThreads) {
+    this.maxPages = maxPages;
+    this.fileName = fileName;
+    this.decoderThreads = Math.max(1, decoderThreads);
+  }
+
+  static boolean isBzip2(String fileName) {
+    return fileName.endsWith(".bz2");
+  }
+
+  /**
+   * The index that Wikipedia publishes next to a multistream dump, e.g.
+   * {@code ...-multistream-index1.txt-p1p41242.bz2} for {@code ...-multistream1.xml-p1p41242.bz2}.
+   * The {@code indexFile} system property overrides the derived name.
+   */
+  static Path indexFileFor(String fileName) {
+    String override = System.getProperty("indexFile");
+    if (override != null)
+      return Paths.get(override);
+    Path dump = Paths.get(fileName);
+    String name = dump.getFileName().toString();
+    int marker = name.lastIndexOf("multistream");
+    if (marker < 0)
+      return null;
+    String index = name.substring(0, marker) + "multistream-index"
+        + name.substring(marker + "multistream".length()).replace(".xml", ".txt");
+    return dump.resolveSibling(index);
+  }
+
+  // Distinct stream offsets listed in an index file ("offset:pageId:title" per line)
+  static long[] readIndex(Path index) throws IOException {
+    byte[] compressed = Files.readAllBytes(index);
+    byte[] lines = Bzip2Decoder.decompress(compressed, 0, compressed.length);
+    long[] offsets = new long[1024];
+    int count = 0;
+    long previous = -1;
+    int i = 0;
+    while (i < lines.length) {
+      long offset = 0;
+      while (i < lines.length && lines[i] >= '0' && lines[i] <= '9')
+        offset = offset * 10 + (lines[i++] - '0');
+      while (i < lines.length && lines[i++] != '\n')
+        ;
+      if (offset != previous) {
+        if (count == offsets.length)
+          offsets = Arrays.copyOf(offsets, count * 2);
+        offsets[count++] = offset;
+        previous = offset;
+      }
+    }
+    return Arrays.copyOf(offsets, count);
+  }
+
+  private class PageIterator implements Iterator<Page> {
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long[] indexOffsets;
+    private final ExecutorService decoders;
+    private final ArrayDeque<Future<List<Page>>> inFlight = new ArrayDeque<>();
+    private int nextIndexOffset;
+    private long nextStreamStart;
+    private int remainingPages;
+    private Iterator<Page> batch = Collections.emptyIterator();
+    private boolean done;
+
+    public PageIterator() throws IOException {
+      remainingPages = maxPages;
+      channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+      fileSize = channel.size();
+      Path index = indexFileFor(fileName);
+      if (index != null && Files.exists(index)) {
+        indexOffsets = readIndex(index);
+        System.out.println("Stream index: " + index + " (" + indexOffsets.length + " streams)");
+      } else {
+        indexOffsets = null;
+        System.out.println("Stream index: none, scanning for bzip2 stream headers");
+      }
+      decoders = Executors.newFixedThreadPool(decoderThreads, runnable -> {
+        Thread thread = new Thread(runnable, "bzip2-decoder");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    public boolean hasNext() {
+      if (!done && remainingPages <= 0)
+        finish();
+      while (!done && !batch.hasNext()) {
+        fill();
+        Future<List<Page>> next = inFlight.poll();
+        if (next == null) {
+          System.out.println("No more pages!");
+          finish();
+          break;
+        }
+        try {
+          batch = next.get().iterator();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          finish();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          finish();
+          throw new RuntimeException(e.getCause());
+        }
+      }
+      return !done && batch.hasNext();
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      --remainingPages;
+      return batch.next();
+    }
+
+    // Keeps a bounded number of streams decoding ahead of the consumer
+    private void fill() {
+      while (inFlight.size() < decoderThreads * 2) {
+        long start = nextStreamStart;
+        if (start >= fileSize)
+          return;
+        long end = nextBoundary(start);
+        if (end - start > MAX_STREAM_BYTES) {
+          finish();
+          throw new IllegalStateException(fileName + " has a bzip2 stream of more than " + MAX_STREAM_BYTES
+              + " bytes at offset " + start + "; only multistream dumps can be read directly,"
+              + " decompress other .bz2 files to .xml first");
+        }
+        nextStreamStart = end;
+        inFlight.add(decoders.submit(() -> decodeSegment(start, end)));
+      }
+    }
+
+    // Where the segment starting at start ends: the next indexed stream, or the next header found
+    private long nextBoundary(long start) {
+      if (indexOffsets != null) {
+        while (nextIndexOffset < indexOffsets.length && indexOffsets[nextIndexOffset] <= start)
+          ++nextIndexOffset;
+        return nextIndexOffset < indexOffsets.length ? indexOffsets[nextIndexOffset] : fileSize;
+      }
+      try {
+        // No need to look further than a stream may be long
+        return scanForStream(channel, start + 1, Math.min(fileSize, start + MAX_STREAM_BYTES + 1));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private List<Page> decodeSegment(long start, long end) throws Exception {
+      ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+      while (compressed.hasRemaining())
+        if (channel.read(compressed, start + compressed.position()) < 0)
+          break;
+      byte[] xml = Bzip2Decoder.decompress(compressed.array(), 0, compressed.position());
+      return parsePages(xml);
+    }
+
+    private void finish() {
+      done = true;
+      remainingPages = 0;
+      for (Future<List<Page>> pending : inFlight)
+        pending.cancel(true);
+      inFlight.clear();
+      decoders.shutdownNow();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing left to release
+      }
+    }
+
+    public void remove() { throw new UnsupportedOperationException(); }
+  }
+
+  // Parses the complete <page> elements of a decompressed stream; headers and trailers are dropped
+  static List<Page> parsePages(byte[] xml) throws Exception {
+    int first = indexOf(xml, PAGE_START, 0);
+    int last = lastIndexOf(xml, PAGE_END);
+    List<Page> pages = new ArrayList<>();
+    if (first < 0 || last < first)
+      return pages;
+    InputStream document = new SequenceInputStream(new ByteArrayInputStream(ROOT_START),
+        new SequenceInputStream(new ByteArrayInputStream(xml, first, last + PAGE_END.length - first),
+            new ByteArrayInputStream(ROOT_END)));
+    CursorPages.PageIterator iterator = new CursorPages.PageIterator(document, Integer.MAX_VALUE, false);
+    while (iterator.hasNext())
+      pages.add(iterator.next());
+    return pages;
+  }
+
+  // Offset of the next "BZh[1-9]" + block magic in [from, limit), or limit
+  static long scanForStream(FileChannel channel, long from, long limit) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+    int header = 4 + BLOCK_MAGIC.length;
+    long position = from;
+    while (position < limit) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read < header)
+        break;
+      byte[] bytes = buffer.array();
+      for (int i = 0; i + header <= read; i++)
+        if (bytes[i] == 'B' && bytes[i + 1] == 'Z' && bytes[i + 2] == 'h'
+            && bytes[i + 3] >= '1' && bytes[i + 3] <= '9' && PartitionedPages.matchesAt(bytes, i + 4, BLOCK_MAGIC))
+          return position + i;
+      position += read - header + 1;
+    }
+    return limit;
+  }
+
+  private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+    for (int i = from; i + pattern.length <= bytes.length; i++)
+      if (PartitionedPages.matchesAt(bytes, i, pattern))
+        return i;
+    return -1;
+  }
+
+  private static int lastIndexOf(byte[] bytes, byte[] pattern) {
+    for (int i = bytes.length - pattern.length; i >= 0; i--)
+      if (PartitionedPages.matchesAt(bytes, i, pattern))
+        return i;
+    return -1;
+  }
+
+  public Iterator<Page> iterator() {
+    try {
+      System.out.println("Max pages: "+maxPages);
+      return new PageIterator();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts bigrams or trigrams (runs of two or three consecutive words of one text)
+ * instead of single words. Words become dense int ids through a {@link SymbolTable}
+ * that all summaries of one run share, so their ids agree and the table goes away with
+ * the run. Each summary caches the ids it has seen in a {@link CountTable}, so the
+ * shared table is consulted once per word and summary and counting does not contend.
+ * An n-gram is packed into a {@code long} (two 32-bit ids, or three 21-bit ids) and
+ * counted in a {@link LongIntTable}; tables merge like {@link CountTable}s. Phrases are
+ * only spelled out for the top-K report.
+ *
+ * <p>N-grams never span two texts: {@link #incrementAll} starts a new sequence. Trigram
+ * keys leave room for 2^21 distinct words per run; a larger vocabulary fails the run.
+ * Not thread-safe; every worker counts into its own summary.
+ */
+final class NGramCounts implements WordSummary {
+
+  private static final int TRIGRAM_ID_BITS = 21;
+
+  private final int n;
+  // Shared by every summary of the run, so the tables of any worker can be merged
+  private final SymbolTable symbols;
+  // word -> id + 1 for the words this summary has looked up
+  private final CountTable ids = new CountTable();
+  private LongIntTable grams = new LongIntTable();
+  // Ids of the last two words of the current text; -1 before the text has that many
+  private long previous = -1;
+  private long beforePrevious = -1;
+
+  NGramCounts(int n, SymbolTable symbols) {
+    if (n != 2 && n != 3)
+      throw new IllegalArgumentException("Only bigrams and trigrams are supported: " + n);
+    this.n = n;
+    this.symbols = symbols;
+  }
+
+  int size() {
+    return grams.size();
+  }
+
+  /** Counts the n-gram that {@code word} ends, continuing the words added before it. */
+  @Override
+  public void increment(CharSequence word) {
+    add(symbols.id(word, ids));
+  }
+
+  @Override
+  public long incrementAll(Iterable<CharSequence> words) {
+    previous = -1;
+    beforePrevious = -1;
+    long tokens = 0;
+    for (CharSequence word : words) {
+      add(symbols.id(word, ids));
+      ++tokens;
+    }
+    previous = -1;
+    beforePrevious = -1;
+    return tokens;
+  }
+
+  private void add(int id) {
+    if (n == 2) {
+      if (previous >= 0)
+        grams.add(previous << 32 | id, 1);
+    } else {
+      checkTrigramId(id);
+      if (beforePrevious >= 0)
+        grams.add(beforePrevious << 2 * TRIGRAM_ID_BITS | previous << TRIGRAM_ID_BITS | id, 1);
+    }
+    beforePrevious = previous;
+    previous = id;
+  }
+
+  private static void checkTrigramId(int id) {
+    if (id >>> TRIGRAM_ID_BITS != 0)
+      throw new IllegalStateException("Trigram keys hold " + (1 << TRIGRAM_ID_BITS)
+          + " distinct words; the input has more (try -Dmarkup=strip, or bigrams)");
+  }
+
+  @Override
+  public WordSummary combine(WordSummary other) {
+    NGramCounts counts = (NGramCounts) other;
+    if (counts.n != n)
+      throw new IllegalArgumentException("Cannot merge " + n + "-grams with " + counts.n + "-grams");
+    if (counts.symbols != symbols)
+      throw new IllegalArgumentException("Cannot merge n-grams of different symbol tables");
+    grams = LongIntTable.merge(grams, counts.grams);
+    return this;
+  }
+
+  /** The n-gram of {@code key} with its words separated by single spaces. */
+  String phrase(long key) {
+    if (n == 2)
+      return symbols.word((int) (key >>> 32)) + ' ' + symbols.word((int) key);
+    long mask = (1L << TRIGRAM_ID_BITS) - 1;
+    return symbols.word((int) (key >>> 2 * TRIGRAM_ID_BITS)) + ' '
+        + symbols.word((int) (key >>> TRIGRAM_ID_BITS & mask)) + ' ' + symbols.word((int) (key & mask));
+  }
+
+  // Bounded min-heap over the table; only candidates that enter the heap are spelled out
+  @Override
+  public List<TopK.WordFrequency> top(int k) {
+    PriorityQueue<TopK.WordFrequency> heap = new PriorityQueue<>(k + 1, TopK.MOST_FREQUENT_FIRST.reversed());
+    if (k > 0) {
+      grams.forEach((key, count) -> {
+        if (heap.size() == k && count < heap.peek().count)
+          return;
+        heap.add(new TopK.WordFrequency(phrase(key), count));
+        if (heap.size() > k)
+          heap.poll();
+      });
+    }
+    List<TopK.WordFrequency> top = new ArrayList<>(heap);
+    top.sort(TopK.MOST_FREQUENT_FIRST);
+    return top;
+  }
+
+  @Override
+  public void report(int k) {
+    long start = System.currentTimeMillis();
+    List<TopK.WordFrequency> top = top(k);
+    TopK.print(top, k, System.currentTimeMillis() - start);
+  }
+}
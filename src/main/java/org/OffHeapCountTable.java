@@ -0,0 +1,322 @@
+package org;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CountTable} counterpart that keeps its words and counts out of the Java heap.
+ * The linear-probing index lives in one direct buffer of 24-byte slots (hash, key
+ * length, key reference, count), the key characters in an arena of 1 MB direct chunks,
+ * so a large vocabulary adds nothing for the collector to trace: the heap only holds
+ * the few buffer objects. {@link #release} frees the buffers immediately instead of
+ * waiting for their cleaners, and a table that is merged into another is released by
+ * {@link #combine}. Direct memory is limited by {@code -XX:MaxDirectMemorySize}
+ * (the maximum heap size by default). Not thread-safe.
+ */
+final class OffHeapCountTable implements WordSummary {
+
+  private static final int SLOT_BYTES = 24;
+  private static final int HASH = 0;
+  private static final int LENGTH = 4;
+  private static final int KEY = 8;
+  private static final int COUNT = 16;
+  private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  // Bytes held by all live tables, for footprint reports
+  private static final AtomicLong RESERVED = new AtomicLong();
+  private static final Method INVOKE_CLEANER;
+  private static final Object UNSAFE;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // buffers are then freed by their cleaners once they become unreachable
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private ByteBuffer index;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  // Key characters, UTF-16; a key reference is (chunk number << 32 | byte offset)
+  private final List<ByteBuffer> chunks = new ArrayList<>();
+  private ByteBuffer chunk;
+  private long reservedBytes;
+  private boolean released;
+
+  OffHeapCountTable() {
+    allocate(1024);
+  }
+
+  /** Bytes of direct memory currently held by all tables that were not released. */
+  static long reservedBytes() {
+    return RESERVED.get();
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Bytes of direct memory held by this table. */
+  long bytes() {
+    return reservedBytes;
+  }
+
+  @Override
+  public void increment(CharSequence word) {
+    int length = word.length();
+    add(word, length, CountTable.hash(word, length), 1);
+  }
+
+  private void add(CharSequence word, int length, int hash, long delta) {
+    ensureLive();
+    ByteBuffer slots = index;
+    int slot = hash & mask;
+    while (true) {
+      int at = slot * SLOT_BYTES;
+      int h = slots.getInt(at + HASH);
+      if (h == 0) {
+        slots.putInt(at + HASH, hash);
+        slots.putInt(at + LENGTH, length);
+        slots.putLong(at + KEY, appendKey(word, length));
+        slots.putLong(at + COUNT, delta);
+        if (++size > resizeAt)
+          rehash();
+        return;
+      }
+      if (h == hash && slots.getInt(at + LENGTH) == length && keyEquals(slots.getLong(at + KEY), word, length)) {
+        slots.putLong(at + COUNT, slots.getLong(at + COUNT) + delta);
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Adds every count of {@code other}; stored hashes are reused. */
+  void addAll(OffHeapCountTable other) {
+    other.ensureLive();
+    long start = System.nanoTime();
+    Key key = other.new Key();
+    for (int slot = 0; slot <= other.mask; slot++) {
+      int at = slot * SLOT_BYTES;
+      int hash = other.index.getInt(at + HASH);
+      if (hash == 0)
+        continue;
+      key.point(other.index.getLong(at + KEY), other.index.getInt(at + LENGTH));
+      add(key, key.length, hash, other.index.getLong(at + COUNT));
+    }
+    Metrics.merged(other.size, start);
+  }
+
+  /** Merges into the larger table and releases the smaller one. */
+  @Override
+  public WordSummary combine(WordSummary other) {
+    OffHeapCountTable table = (OffHeapCountTable) other;
+    if (table == this)
+      return this;
+    OffHeapCountTable larger = size >= table.size ? this : table;
+    OffHeapCountTable smaller = larger == this ? table : this;
+    larger.addAll(smaller);
+    smaller.release();
+    return larger;
+  }
+
+  public long get(CharSequence word) {
+    ensureLive();
+    int length = word.length();
+    int hash = CountTable.hash(word, length);
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int at = slot * SLOT_BYTES;
+      int h = index.getInt(at + HASH);
+      if (h == 0)
+        return 0;
+      if (h == hash && index.getInt(at + LENGTH) == length && keyEquals(index.getLong(at + KEY), word, length))
+        return index.getLong(at + COUNT);
+    }
+  }
+
+  /** Visits every entry; the key is copied into a scratch array that is reused. */
+  void forEach(CountTable.EntryVisitor visitor) {
+    ensureLive();
+    char[] scratch = new char[64];
+    for (int slot = 0; slot <= mask; slot++) {
+      int at = slot * SLOT_BYTES;
+      if (index.getInt(at + HASH) == 0)
+        continue;
+      int length = index.getInt(at + LENGTH);
+      if (length > scratch.length)
+        scratch = new char[Math.max(length, scratch.length * 2)];
+      readKey(index.getLong(at + KEY), scratch, length);
+      visitor.visit(scratch, 0, length, index.getLong(at + COUNT));
+    }
+  }
+
+  // Bounded min-heap over the slots; only candidates that enter the heap become Strings
+  @Override
+  public List<TopK.WordFrequency> top(int k) {
+    ensureLive();
+    PriorityQueue<TopK.WordFrequency> heap = new PriorityQueue<>(k + 1, TopK.MOST_FREQUENT_FIRST.reversed());
+    char[] scratch = new char[64];
+    for (int slot = 0; slot <= mask && k > 0; slot++) {
+      int at = slot * SLOT_BYTES;
+      if (index.getInt(at + HASH) == 0)
+        continue;
+      long count = index.getLong(at + COUNT);
+      if (heap.size() == k && count < heap.peek().count)
+        continue;
+      int length = index.getInt(at + LENGTH);
+      if (length > scratch.length)
+        scratch = new char[Math.max(length, scratch.length * 2)];
+      readKey(index.getLong(at + KEY), scratch, length);
+      heap.add(new TopK.WordFrequency(new String(scratch, 0, length), count));
+      if (heap.size() > k)
+        heap.poll();
+    }
+    List<TopK.WordFrequency> top = new ArrayList<>(heap);
+    top.sort(TopK.MOST_FREQUENT_FIRST);
+    return top;
+  }
+
+  @Override
+  public void report(int k) {
+    long start = System.currentTimeMillis();
+    List<TopK.WordFrequency> top = top(k);
+    TopK.print(top, k, System.currentTimeMillis() - start);
+  }
+
+  /** Frees the index and the key arena; the table must not be used afterwards. */
+  @Override
+  public void release() {
+    if (released)
+      return;
+    released = true;
+    discard(index);
+    for (ByteBuffer buffer : chunks)
+      discard(buffer);
+    index = null;
+    chunk = null;
+    chunks.clear();
+  }
+
+  private void ensureLive() {
+    if (released)
+      throw new IllegalStateException("Off-heap count table was released");
+  }
+
+  private void allocate(int capacity) {
+    index = direct((long) capacity * SLOT_BYTES);
+    mask = capacity - 1;
+    resizeAt = capacity * 3 / 5;
+  }
+
+  private void rehash() {
+    ByteBuffer old = index;
+    int oldCapacity = mask + 1;
+    if (oldCapacity >= MAX_CAPACITY)
+      throw new IllegalStateException("Off-heap count table is full: " + size + " words");
+    allocate(oldCapacity * 2);
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      int from = slot * SLOT_BYTES;
+      int hash = old.getInt(from + HASH);
+      if (hash == 0)
+        continue;
+      int target = hash & mask;
+      while (index.getInt(target * SLOT_BYTES + HASH) != 0)
+        target = (target + 1) & mask;
+      int to = target * SLOT_BYTES;
+      index.putInt(to + HASH, hash);
+      index.putInt(to + LENGTH, old.getInt(from + LENGTH));
+      index.putLong(to + KEY, old.getLong(from + KEY));
+      index.putLong(to + COUNT, old.getLong(from + COUNT));
+    }
+    discard(old);
+  }
+
+  private long appendKey(CharSequence word, int length) {
+    int bytes = length * 2;
+    if (chunk == null || chunk.capacity() - chunk.position() < bytes) {
+      chunk = direct(Math.max(CHUNK_BYTES, bytes));
+      chunks.add(chunk);
+    }
+    int offset = chunk.position();
+    for (int i = 0; i < length; i++)
+      chunk.putChar(offset + 2 * i, word.charAt(i));
+    chunk.position(offset + bytes);
+    return (long) (chunks.size() - 1) << 32 | offset;
+  }
+
+  private boolean keyEquals(long key, CharSequence word, int length) {
+    ByteBuffer keys = chunks.get((int) (key >>> 32));
+    int offset = (int) key;
+    for (int i = 0; i < length; i++)
+      if (keys.getChar(offset + 2 * i) != word.charAt(i))
+        return false;
+    return true;
+  }
+
+  private void readKey(long key, char[] target, int length) {
+    ByteBuffer keys = chunks.get((int) (key >>> 32));
+    int offset = (int) key;
+    for (int i = 0; i < length; i++)
+      target[i] = keys.getChar(offset + 2 * i);
+  }
+
+  private ByteBuffer direct(long bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    reservedBytes += bytes;
+    RESERVED.addAndGet(bytes);
+    return buffer;
+  }
+
+  private void discard(ByteBuffer buffer) {
+    reservedBytes -= buffer.capacity();
+    RESERVED.addAndGet(-buffer.capacity());
+    if (INVOKE_CLEANER == null)
+      return;
+    try {
+      INVOKE_CLEANER.invoke(UNSAFE, buffer);
+    } catch (ReflectiveOperationException e) {
+      // left to the buffer's cleaner
+    }
+  }
+
+  /** A key of this table viewed as a {@link CharSequence}, re-pointed for every entry. */
+  private final class Key implements CharSequence {
+    private ByteBuffer keys;
+    private int offset;
+    private int length;
+
+    void point(long key, int length) {
+      this.keys = chunks.get((int) (key >>> 32));
+      this.offset = (int) key;
+      this.length = length;
+    }
+
+    public int length() { return length; }
+    public char charAt(int i) { return keys.getChar(offset + 2 * i); }
+    public CharSequence subSequence(int from, int to) { return toString().substring(from, to); }
+    @Override public String toString() {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++)
+        chars[i] = charAt(i);
+      return new String(chars);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package org;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * {@link LocalWordCounter} with {@link OffHeapCountTable}s: every worker thread counts
+ * into its own off-heap table, and the tables are merged into the largest one, which
+ * releases the others, when the result is requested.
+ */
+class OffHeapWordCounter implements WordCounter {
+
+  private final Queue<OffHeapCountTable> tables = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<OffHeapCountTable> local = ThreadLocal.withInitial(() -> {
+    OffHeapCountTable table = new OffHeapCountTable();
+    tables.add(table);
+    return table;
+  });
+
+  @Override
+  public void count(CharSequence word) {
+    local.get().increment(word);
+  }
+
+  @Override
+  public WordSummary result() {
+    WordSummary merged = new OffHeapCountTable();
+    for (OffHeapCountTable table; (table = tables.poll()) != null; )
+      merged = merged.combine(table);
+    return merged;
+  }
+}
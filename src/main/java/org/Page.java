@@ -3,9 +3,17 @@ package org;
 class Page {
   private String title;
   private String text;
+  // A later part of a page that was split, see PageSplits; not a page of its own
+  private boolean continuation;
 
   public Page(String title, String text) { this.title = title; this.text = text; }
 
+  Page(String title, String text, boolean continuation) {
+    this(title, text);
+    this.continuation = continuation;
+  }
+
   public String getTitle() { return title; }
   public String getText() { return text; }
+  public boolean isContinuation() { return continuation; }
 }
@@ -0,0 +1,392 @@
+package org;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary container of already parsed pages, written once from a dump by
+ * {@link PageCacheConverter} so that later runs skip XML parsing and measure tokenizing
+ * and counting alone. Files ending in {@code .pages} are read through it wherever a dump
+ * is expected. Layout, big-endian:
+ *
+ * <ul>
+ *   <li>the magic {@code WCPAGES1};
+ *   <li>blocks of whole pages, each page as a length-prefixed record: int title length,
+ *       title bytes, int text length, text bytes, all UTF-8. A compressed block is the
+ *       deflated form of those records;
+ *   <li>the block index: per block its offset, stored length, record length and number
+ *       of pages (long, int, int, int);
+ *   <li>the index offset (long), the number of blocks (int) and the magic again.
+ * </ul>
+ *
+ * <p>The reader maps the file once and hands out the pages of any range of blocks;
+ * ranges are independent, so {@link #partitions} can be read concurrently. The page
+ * limit is a budget shared by all ranges of one call, as in {@link PartitionedPages}.
+ */
+final class PageCache {
+
+  static final String EXTENSION = ".pages";
+  private static final byte[] MAGIC = "WCPAGES1".getBytes(StandardCharsets.US_ASCII);
+  private static final int INDEX_ENTRY = 8 + 4 + 4 + 4;
+  private static final int TRAILER = 8 + 4 + 8;
+  // Largest mapping; blocks never straddle two mappings
+  private static final long MAX_SEGMENT = 1L << 30;
+
+  private final long[] offsets;
+  private final int[] storedLengths;
+  private final int[] rawLengths;
+  private final int[] pageCounts;
+  private final MappedByteBuffer[] segments;
+  private final long[] segmentStarts;
+  // Mapping that holds each block
+  private final int[] blockSegments;
+
+  static boolean isCache(String fileName) {
+    return fileName.endsWith(EXTENSION);
+  }
+
+  private PageCache(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      long size = channel.size();
+      ByteBuffer trailer = read(channel, size - TRAILER, TRAILER, file);
+      long indexOffset = trailer.getLong();
+      int blocks = trailer.getInt();
+      byte[] magic = new byte[MAGIC.length];
+      trailer.get(magic);
+      if (!Arrays.equals(magic, MAGIC) || indexOffset < MAGIC.length || blocks < 0)
+        throw new IOException("Not a page cache: " + file);
+      ByteBuffer index = read(channel, indexOffset, blocks * INDEX_ENTRY, file);
+      offsets = new long[blocks];
+      storedLengths = new int[blocks];
+      rawLengths = new int[blocks];
+      pageCounts = new int[blocks];
+      blockSegments = new int[blocks];
+      for (int b = 0; b < blocks; b++) {
+        offsets[b] = index.getLong();
+        storedLengths[b] = index.getInt();
+        rawLengths[b] = index.getInt();
+        pageCounts[b] = index.getInt();
+      }
+      List<MappedByteBuffer> mapped = new ArrayList<>();
+      List<Long> starts = new ArrayList<>();
+      int b = 0;
+      while (b < blocks) {
+        long start = offsets[b];
+        long end = start;
+        while (b < blocks && (end == start || offsets[b] + storedLengths[b] - start <= MAX_SEGMENT)) {
+          end = offsets[b] + storedLengths[b];
+          blockSegments[b++] = mapped.size();
+        }
+        mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        starts.add(start);
+      }
+      segments = mapped.toArray(new MappedByteBuffer[0]);
+      segmentStarts = starts.stream().mapToLong(Long::longValue).toArray();
+    }
+  }
+
+  static PageCache open(String fileName) {
+    try {
+      return new PageCache(Paths.get(fileName));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+    if (position < 0)
+      throw new IOException("Not a page cache: " + file);
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining())
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("Truncated page cache: " + file);
+    return buffer.flip();
+  }
+
+  int blocks() {
+    return offsets.length;
+  }
+
+  long pages() {
+    long pages = 0;
+    for (int count : pageCounts)
+      pages += count;
+    return pages;
+  }
+
+  /** All pages in dump order, at most {@code maxPages}. */
+  Iterable<Page> pages(int maxPages) {
+    AtomicInteger budget = new AtomicInteger(maxPages);
+    return () -> new BlockIterator(0, blocks(), budget);
+  }
+
+  /**
+   * Splits the blocks into at most {@code count} consecutive ranges of about the same
+   * length that can be read concurrently and share a budget of {@code maxPages} pages.
+   */
+  List<Iterable<Page>> partitions(int count, int maxPages) {
+    AtomicInteger budget = new AtomicInteger(maxPages);
+    long total = 0;
+    for (int length : rawLengths)
+      total += length;
+    List<Iterable<Page>> partitions = new ArrayList<>();
+    int from = 0;
+    long covered = 0;
+    for (int p = 1; p <= count && from < blocks(); p++) {
+      long target = total * p / count;
+      int to = from;
+      while (to < blocks() && (to == from || covered + rawLengths[to] <= target || p == count))
+        covered += rawLengths[to++];
+      int first = from;
+      int last = to;
+      partitions.add(() -> new BlockIterator(first, last, budget));
+      from = to;
+    }
+    return partitions;
+  }
+
+  // Records of block b: a view of the mapping, or the inflated block
+  private ByteBuffer records(int b) {
+    ByteBuffer segment = segments[blockSegments[b]].duplicate();
+    int start = (int) (offsets[b] - segmentStarts[blockSegments[b]]);
+    segment.position(start).limit(start + storedLengths[b]);
+    if (storedLengths[b] == rawLengths[b])
+      return segment.slice();
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(segment);
+      byte[] raw = new byte[rawLengths[b]];
+      int length = 0;
+      while (length < raw.length && !inflater.finished()) {
+        int n = inflater.inflate(raw, length, raw.length - length);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        length += n;
+      }
+      if (length != raw.length)
+        throw new IllegalStateException("Corrupt page cache block " + b);
+      return ByteBuffer.wrap(raw);
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt page cache block " + b, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  // Pages of blocks [block, end), claiming each from the shared budget before handing it out
+  private class BlockIterator implements Iterator<Page> {
+
+    private final int end;
+    private final AtomicInteger budget;
+    private int block;
+    private ByteBuffer records;
+    private boolean claimed;
+    private boolean done;
+    private byte[] scratch = new byte[256];
+
+    BlockIterator(int block, int end, AtomicInteger budget) {
+      this.block = block;
+      this.end = end;
+      this.budget = budget;
+    }
+
+    public boolean hasNext() {
+      if (claimed)
+        return true;
+      if (done)
+        return false;
+      while (records == null || !records.hasRemaining()) {
+        if (block >= end) {
+          done = true;
+          return false;
+        }
+        records = records(block++);
+      }
+      if (budget.getAndDecrement() <= 0) {
+        done = true;
+        return false;
+      }
+      claimed = true;
+      return true;
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      claimed = false;
+      long start = System.nanoTime();
+      String title = string();
+      String text = string();
+      Metrics.pageParsed(start, text.length());
+      return new Page(title, text);
+    }
+
+    private String string() {
+      int length = records.getInt();
+      if (length > scratch.length)
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      records.get(scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Writes pages into a new cache. Pages are kept in the order they are added; a block
+   * is closed once its records reach {@code blockBytes}. The cache is written to a
+   * temporary file and renamed by {@link #finish}, so a failed conversion leaves no
+   * {@code .pages} file behind.
+   */
+  static final class Writer implements Closeable {
+    private final Path file;
+    private final Path temporary;
+    private final DataOutputStream out;
+    private final int blockBytes;
+    private final Deflater deflater;
+    private final DataOutputStream records;
+    private final ExposedBuffer block = new ExposedBuffer();
+    private byte[] compressed = new byte[0];
+    private int blockPages;
+    private long offset;
+    private long pages;
+    private long[] offsets = new long[64];
+    private int[] storedLengths = new int[64];
+    private int[] rawLengths = new int[64];
+    private int[] pageCounts = new int[64];
+    private int blocks;
+    private boolean closed;
+    private boolean finished;
+
+    Writer(Path file, int blockBytes, boolean compress) throws IOException {
+      this.file = file;
+      this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      this.blockBytes = Math.max(1, blockBytes);
+      // Fastest level: decompression speed hardly depends on it, conversion time does
+      this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+      this.records = new DataOutputStream(block);
+      this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16));
+      out.write(MAGIC);
+      offset = MAGIC.length;
+    }
+
+    synchronized void add(Page page) throws IOException {
+      write(page.getTitle());
+      write(page.getText());
+      ++blockPages;
+      ++pages;
+      if (block.size() >= blockBytes)
+        flush();
+    }
+
+    private void write(String value) throws IOException {
+      byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+      records.writeInt(bytes.length);
+      records.write(bytes);
+    }
+
+    private void flush() throws IOException {
+      if (blockPages == 0)
+        return;
+      int rawLength = block.size();
+      int storedLength = rawLength;
+      byte[] stored = block.bytes();
+      if (deflater != null) {
+        deflater.reset();
+        deflater.setInput(stored, 0, rawLength);
+        deflater.finish();
+        if (compressed.length < rawLength)
+          compressed = new byte[rawLength];
+        int length = 0;
+        while (!deflater.finished() && length < rawLength)
+          length += deflater.deflate(compressed, length, rawLength - length);
+        // A block that does not shrink is stored as is; equal lengths mark it uncompressed
+        if (deflater.finished() && length < rawLength) {
+          stored = compressed;
+          storedLength = length;
+        }
+      }
+      out.write(stored, 0, storedLength);
+      if (blocks == offsets.length) {
+        offsets = Arrays.copyOf(offsets, blocks * 2);
+        storedLengths = Arrays.copyOf(storedLengths, blocks * 2);
+        rawLengths = Arrays.copyOf(rawLengths, blocks * 2);
+        pageCounts = Arrays.copyOf(pageCounts, blocks * 2);
+      }
+      offsets[blocks] = offset;
+      storedLengths[blocks] = storedLength;
+      rawLengths[blocks] = rawLength;
+      pageCounts[blocks] = blockPages;
+      ++blocks;
+      offset += storedLength;
+      block.reset();
+      blockPages = 0;
+    }
+
+    long pages() {
+      return pages;
+    }
+
+    int blocks() {
+      return blocks;
+    }
+
+    /** Writes the block index and moves the finished cache into place. */
+    synchronized void finish() throws IOException {
+      flush();
+      for (int b = 0; b < blocks; b++) {
+        out.writeLong(offsets[b]);
+        out.writeInt(storedLengths[b]);
+        out.writeInt(rawLengths[b]);
+        out.writeInt(pageCounts[b]);
+      }
+      out.writeLong(offset);
+      out.writeInt(blocks);
+      out.write(MAGIC);
+      finished = true;
+      close();
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Releases the writer; without {@link #finish} the partial cache is deleted. */
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed)
+        return;
+      closed = true;
+      try {
+        out.close();
+      } finally {
+        if (deflater != null)
+          deflater.end();
+        if (!finished)
+          Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  // Gives the deflater the block's bytes without a copy
+  private static final class ExposedBuffer extends ByteArrayOutputStream {
+    byte[] bytes() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Converts a dump ({@code -DfileName}, XML or multistream bz2) into a {@link PageCache}
+ * at {@code -DpageCache} (default: the dump's name plus {@code .pages}). The pages are
+ * stored raw and in dump order, so {@code -Dmarkup} and {@code -DmaxPages} still apply
+ * when the cache is counted. The whole dump is converted unless {@code -DmaxPages} is
+ * given, in which case it limits the conversion itself.
+ * Blocks hold about {@code -DpageCache.blockBytes} bytes of records (default 4 MB) and
+ * are deflated with {@code -DpageCache.compress=true}.
+ */
+public class PageCacheConverter {
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties().withMarkup("keep");
+        // The engines' default page limit would silently truncate the cache
+        boolean limited = System.getProperty("maxPages") != null;
+        if (!limited)
+            config = config.withMaxPages(Integer.MAX_VALUE);
+        if (config.isInMemory() || PageCache.isCache(config.getFileName()))
+            throw new IllegalArgumentException("Nothing to convert: " + config.describeSource());
+        Path target = Paths.get(System.getProperty("pageCache", config.getFileName() + PageCache.EXTENSION));
+        int blockBytes = Integer.getInteger("pageCache.blockBytes", 4 << 20);
+        boolean compress = Boolean.getBoolean("pageCache.compress");
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Page Cache Conversion ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Page cache: %s, blocks of %d bytes%s%n", target, blockBytes, compress ? ", deflated" : "");
+        System.out.println("-----------------------------------------------------");
+
+        long start = System.currentTimeMillis();
+        PageCache.Writer writer = new PageCache.Writer(target, blockBytes, compress);
+        try (writer) {
+            config.forEachPageInOrder(page -> {
+                try {
+                    writer.add(page);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.finish();
+        }
+        long end = System.currentTimeMillis();
+
+        long source = Files.size(Paths.get(config.getFileName()));
+        long cache = Files.size(target);
+        System.out.println("Execution Time: " + (end - start) + " ms");
+        System.out.printf(Locale.ROOT, "Converted Pages: %d in %d blocks | %.1f MB, %.1f%% of the %.1f MB dump%n",
+                writer.pages(), writer.blocks(), cache / 1e6, 100.0 * cache / source, source / 1e6);
+        if (limited && writer.pages() >= config.getMaxPages())
+            System.out.printf("Warning: stopped at -DmaxPages=%d; the cache may not hold the whole dump%n",
+                    config.getMaxPages());
+    }
+}
@@ -0,0 +1,237 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hand-off from the page parser to the counting workers. Pages are grouped into batches
+ * of about {@code batchChars} characters of text, and the batches pass through a
+ * fixed-size ring buffer. When the buffer is full the parser blocks until a worker takes
+ * a batch, so at most {@code capacity} batches (plus one per worker and one per parser
+ * thread) are in memory, however large the dump is. Workers are woken once per batch
+ * instead of once per page. A page longer than {@code splitChars} is cut into parts
+ * (see {@link PageSplits}) and every part is a batch of its own, so the workers that
+ * would otherwise wait for the input to end count the rest of a very long page; use
+ * {@link #pages} to count the pages of a batch. Waits on either side and the queue depth
+ * are recorded in {@link Metrics}.
+ *
+ * <p>One pipeline serves one run: {@link #produce} is called once, on the parser
+ * thread (or {@link #feed} once per input followed by {@link #close}), and any number
+ * of workers call {@link #take} until it returns {@code null}.
+ */
+final class PagePipeline {
+
+  // One batch under construction per parser thread
+  private static final class Batch {
+    final List<Page> pages = new ArrayList<>();
+    long chars;
+    // Set once the batch was handed over at the end of a feed; the thread must start a new one
+    volatile boolean flushed;
+  }
+
+  private final int batchChars;
+  private final int splitChars;
+  private final List<Page>[] ring;
+  private int head;
+  private int count;
+  private boolean closed;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  private final ThreadLocal<Batch> currentBatch = ThreadLocal.withInitial(this::openBatch);
+  private final ConcurrentLinkedQueue<Batch> openBatches = new ConcurrentLinkedQueue<>();
+
+  PagePipeline(int capacity, int batchChars, int splitChars) {
+    @SuppressWarnings("unchecked")
+    List<Page>[] ring = (List<Page>[]) new List<?>[Math.max(1, capacity)];
+    this.ring = ring;
+    this.batchChars = Math.max(1, batchChars);
+    this.splitChars = splitChars;
+  }
+
+  static PagePipeline forConfig(EngineConfig config) {
+    return new PagePipeline(config.getQueueBatches(), config.getBatchChars(), config.getPageSplitChars());
+  }
+
+  /** Pages in {@code batch}, not counting the continuation parts of split pages. */
+  static int pages(List<Page> batch) {
+    int pages = 0;
+    for (Page page : batch)
+      if (!page.isContinuation())
+        ++pages;
+    return pages;
+  }
+
+  /**
+   * Reads the pages of {@code config} into the pipeline, blocking whenever the ring is
+   * full, and closes the pipeline when the input is exhausted or reading fails.
+   */
+  void produce(EngineConfig config) {
+    try {
+      feed(config);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Reads the pages of {@code config} into the pipeline without closing it, so several
+   * inputs can be fed one after another; call {@link #close} after the last one.
+   */
+  void feed(EngineConfig config) {
+    config.forEachPage(this::add);
+    // The parser threads are done; hand over their partial batches
+    for (Batch batch : openBatches) {
+      batch.flushed = true;
+      if (!batch.pages.isEmpty())
+        put(batch.pages);
+    }
+    openBatches.clear();
+  }
+
+  private void add(Page page) {
+    if (PageSplits.shouldSplit(page.getText(), splitChars)) {
+      List<Page> parts = PageSplits.parts(page, splitChars);
+      if (parts.size() > 1) {
+        for (Page part : parts)
+          put(Collections.singletonList(part));
+        return;
+      }
+    }
+    Batch batch = currentBatch.get();
+    if (batch.flushed) {
+      currentBatch.remove();
+      batch = currentBatch.get();
+    }
+    batch.pages.add(page);
+    batch.chars += page.getText().length();
+    if (batch.chars >= batchChars) {
+      openBatches.remove(batch);
+      currentBatch.remove();
+      put(batch.pages);
+    }
+  }
+
+  private Batch openBatch() {
+    Batch batch = new Batch();
+    openBatches.add(batch);
+    return batch;
+  }
+
+  private void put(List<Page> batch) {
+    lock.lock();
+    try {
+      if (count == ring.length && !closed) {
+        long start = System.nanoTime();
+        while (count == ring.length && !closed)
+          notFull.await();
+        Metrics.queueWait(true, System.nanoTime() - start, count);
+      }
+      if (closed)
+        throw new IllegalStateException("Page pipeline was aborted");
+      ring[(head + count) % ring.length] = batch;
+      ++count;
+      notEmpty.signal();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the counting workers", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the next batch, waiting for the parser if necessary, or {@code null} once
+   * the input is exhausted and every batch has been taken.
+   */
+  List<Page> take() throws InterruptedException {
+    lock.lock();
+    try {
+      if (count == 0 && !closed) {
+        long start = System.nanoTime();
+        while (count == 0 && !closed)
+          notEmpty.await();
+        Metrics.queueWait(false, System.nanoTime() - start, count);
+      }
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Like {@link #take} but gives up after {@code timeout}, returning {@code null};
+   * {@link #isFinished} tells a timeout from the end of the input.
+   */
+  List<Page> poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      if (count == 0 && !closed) {
+        long start = System.nanoTime();
+        while (count == 0 && !closed && nanos > 0)
+          nanos = notEmpty.awaitNanos(nanos);
+        Metrics.queueWait(false, System.nanoTime() - start, count);
+      }
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Caller holds the lock and has checked that the ring is not empty
+  private List<Page> dequeue() {
+    Metrics.queueDepth(count);
+    List<Page> batch = ring[head];
+    ring[head] = null;
+    head = (head + 1) % ring.length;
+    --count;
+    notFull.signal();
+    return batch;
+  }
+
+  /** True once the input is exhausted and every batch has been taken. */
+  boolean isFinished() {
+    lock.lock();
+    try {
+      return closed && count == 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // End of input: workers drain what is left and then see null
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops the run after a worker failed: the parser gets an exception instead of blocking
+   * on a ring nobody drains, and batches not taken yet are dropped.
+   */
+  void abort() {
+    lock.lock();
+    try {
+      closed = true;
+      count = 0;
+      Arrays.fill(ring, null);
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Cuts the text of very long pages into parts that can be counted on different threads,
+ * so one huge list article does not keep a single worker busy while the others are idle
+ * at the end of a run. A cut is only made before a letter or digit that follows
+ * whitespace. Both tokenizers end a segment there ({@code BreakIterator} may join
+ * whitespace with marks and controls around it, but not with the letter after it), so
+ * the words of the parts are exactly the words of the whole text.
+ */
+final class PageSplits {
+
+  private PageSplits() {
+  }
+
+  /** True if {@code text} is longer than {@code maxChars}; 0 disables splitting. */
+  static boolean shouldSplit(String text, int maxChars) {
+    return maxChars > 0 && text.length() > maxChars;
+  }
+
+  /**
+   * Splits {@code page} into parts of at least {@code maxChars} characters, each ending
+   * before a word that follows whitespace. The first part keeps the page, the others are
+   * continuations (see {@link Page#isContinuation}). A page that is short enough, or
+   * has no word after whitespace beyond its first {@code maxChars} characters, comes back whole.
+   */
+  static List<Page> parts(Page page, int maxChars) {
+    String text = page.getText();
+    if (!shouldSplit(text, maxChars))
+      return Collections.singletonList(page);
+    List<Page> parts = new ArrayList<>();
+    int from = 0;
+    while (text.length() - from > maxChars) {
+      int cut = cut(text, from + maxChars);
+      if (cut == text.length())
+        break;
+      parts.add(new Page(page.getTitle(), text.substring(from, cut), from > 0));
+      from = cut;
+    }
+    if (from == 0)
+      return Collections.singletonList(page);
+    parts.add(new Page(page.getTitle(), text.substring(from), true));
+    return parts;
+  }
+
+  // First position at or after `at` where a word starts right after whitespace, or the text length
+  private static int cut(String text, int at) {
+    for (int i = at; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if ((FastWords.isLetter(c) || FastWords.isDigit(c)) && FastWords.isSeparator(text.charAt(i - 1)))
+        return i;
+    }
+    return text.length();
+  }
+
+  /**
+   * Counts parts [from, to) of one page, halving the range until a task holds one part.
+   * With {@code shared} set, the parts are counted into its per-thread summaries and the
+   * task returns null.
+   */
+  static final class CountParts extends RecursiveTask<WordSummary> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Page> parts;
+    private final int from;
+    private final int to;
+    private final String countMode;
+    private final SymbolTable symbols;
+    private final ThreadSummaries shared;
+
+    CountParts(List<Page> parts, int from, int to, String countMode, SymbolTable symbols, ThreadSummaries shared) {
+      this.parts = parts;
+      this.from = from;
+      this.to = to;
+      this.countMode = countMode;
+      this.symbols = symbols;
+      this.shared = shared;
+    }
+
+    @Override
+    protected WordSummary compute() {
+      if (to - from == 1) {
+        WordSummary counts = shared != null ? shared.local() : WordSummary.create(countMode, symbols);
+        String text = parts.get(from).getText();
+        long begin = System.nanoTime();
+        long tokens = counts.incrementAll(Words.tokens(text));
+        Metrics.batchCounted(1, text.length(), tokens, begin);
+        return shared != null ? null : counts;
+      }
+      int mid = (from + to) >>> 1;
+      CountParts left = new CountParts(parts, from, mid, countMode, symbols, shared);
+      left.fork();
+      WordSummary right = new CountParts(parts, mid, to, countMode, symbols, shared).compute();
+      return ThreadSummaries.combine(left.join(), right);
+    }
+  }
+}
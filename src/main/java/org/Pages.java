@@ -1,6 +1,7 @@
 package org;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.Iterator;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.stream.XMLEventReader;
@@ -16,15 +17,32 @@ class Pages implements Iterable<Page> {
     this.fileName = fileName;
   }
 
+  /**
+   * Opens the page reader selected by the {@code pageReader} system property:
+   * {@code cursor} (default, see {@link CursorPages}) or {@code event} for this
+   * XMLEventReader based implementation. Files ending in {@code .bz2} are read as
+   * multistream dumps, decompressed on {@code decoderThreads} threads, and files ending
+   * in {@code .pages} as a {@link PageCache}.
+   */
+  static Iterable<Page> open(int maxPages, String fileName) {
+    if (PageCache.isCache(fileName))
+      return PageCache.open(fileName).pages(maxPages);
+    if (MultistreamPages.isBzip2(fileName))
+      return new MultistreamPages(maxPages, fileName,
+          Integer.getInteger("decoderThreads", Runtime.getRuntime().availableProcessors()));
+    if (System.getProperty("pageReader", "cursor").equals("event"))
+      return new Pages(maxPages, fileName);
+    return new CursorPages(maxPages, fileName);
+  }
+
   private class PageIterator implements Iterator<Page> {
 
     private XMLEventReader reader;
     private int remainingPages;
 
-    public PageIterator() throws Exception {
+    public PageIterator(InputStream input) throws Exception {
       remainingPages = maxPages;
-      System.out.println("Max pages: "+maxPages);
-      reader = XMLInputFactory.newInstance().createXMLEventReader(new FileInputStream(fileName));
+      reader = XMLInputFactory.newInstance().createXMLEventReader(input);
     }
 
     public boolean hasNext() { 
@@ -32,6 +50,7 @@ class Pages implements Iterable<Page> {
     }
 
     public Page next() {
+      long start = System.nanoTime();
       try {
         XMLEvent event;
         String title = "";
@@ -51,6 +70,7 @@ class Pages implements Iterable<Page> {
                 } else if (event.isEndElement()) {
                   if (event.asEndElement().getName().getLocalPart().equals("page")) {
                     --remainingPages;
+                    Metrics.pageParsed(start, text.length());
                     return new Page(title, text);
                   }
                 }
@@ -70,9 +90,18 @@ class Pages implements Iterable<Page> {
     public void remove() { throw new UnsupportedOperationException(); }
   }
 
+  /**
+   * Reads at most {@code maxPages} pages of an in-memory or already opened document with
+   * the event reader, without the progress output of {@link #iterator()}.
+   */
+  static Iterator<Page> read(InputStream input, int maxPages) throws Exception {
+    return new Pages(maxPages, null).new PageIterator(input);
+  }
+
   public Iterator<Page> iterator() {
     try {
-      return new PageIterator();
+      System.out.println("Max pages: "+maxPages);
+      return new PageIterator(new FileInputStream(fileName));
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,69 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact counts split over tables with disjoint key sets, as chosen by
+ * {@link CountCodec#partitionOf}. The partitions can be filled and merged concurrently,
+ * one thread per partition, and are never folded into a single table: the top-K is
+ * selected per partition and the partial lists are merged.
+ */
+final class PartitionedCounts implements WordSummary {
+
+  private final CountTable[] partitions;
+
+  PartitionedCounts(int partitions) {
+    this.partitions = new CountTable[partitions];
+    for (int p = 0; p < partitions; p++)
+      this.partitions[p] = new CountTable();
+  }
+
+  int partitionCount() {
+    return partitions.length;
+  }
+
+  /** Partition {@code p}; callers synchronise on it while they change it. */
+  CountTable partition(int p) {
+    return partitions[p];
+  }
+
+  long size() {
+    long size = 0;
+    for (CountTable partition : partitions)
+      size += partition.size();
+    return size;
+  }
+
+  @Override
+  public void increment(CharSequence word) {
+    int length = word.length();
+    int hash = CountTable.hash(word, length);
+    partitions[Math.floorMod(hash, partitions.length)].add(word, length, hash, 1);
+  }
+
+  @Override
+  public WordSummary combine(WordSummary other) {
+    PartitionedCounts counts = (PartitionedCounts) other;
+    if (counts.partitions.length != partitions.length)
+      throw new IllegalArgumentException("Partition counts differ: " + partitions.length + " and " + counts.partitions.length);
+    for (int p = 0; p < partitions.length; p++)
+      partitions[p] = CountTable.merge(partitions[p], counts.partitions[p]);
+    return this;
+  }
+
+  @Override
+  public List<TopK.WordFrequency> top(int k) {
+    List<List<TopK.WordFrequency>> partials = new ArrayList<>();
+    for (CountTable partition : partitions)
+      partials.add(partition.top(k));
+    return TopK.merge(partials, k);
+  }
+
+  @Override
+  public void report(int k) {
+    long start = System.currentTimeMillis();
+    List<TopK.WordFrequency> top = top(k);
+    TopK.print(top, k, System.currentTimeMillis() - start);
+  }
+}
@@ -0,0 +1,317 @@
+package org;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Splits a single XML dump into byte ranges that can be parsed independently.
+ * Each range is realigned to the next {@code <page>} start tag, so every page belongs
+ * to exactly one partition, and is parsed under a synthetic root element by its own
+ * {@link CursorPages.PageIterator}. The page limit is a budget shared by all
+ * partitions: at most {@code maxPages} pages are returned in total.
+ */
+class PartitionedPages {
+
+  private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DUMP_END = "</mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ROOT_START = "<mediawiki>".getBytes(StandardCharsets.US_ASCII);
+  private static final int SCAN_BUFFER = 64 * 1024;
+
+  private final String fileName;
+  private final int partitionCount;
+  private final AtomicInteger budget;
+  private final long rangeStart;
+  private final long rangeEnd;
+
+  public PartitionedPages(int maxPages, String fileName, int partitionCount) {
+    this(maxPages, fileName, partitionCount, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Partitions only [{@code rangeStart}, {@code rangeEnd}) of the dump; pages are
+   * assigned to the range their {@code <page>} tag starts in.
+   */
+  public PartitionedPages(int maxPages, String fileName, int partitionCount, long rangeStart, long rangeEnd) {
+    this.fileName = fileName;
+    this.partitionCount = Math.max(1, partitionCount);
+    this.budget = new AtomicInteger(maxPages);
+    this.rangeStart = rangeStart;
+    this.rangeEnd = rangeEnd;
+  }
+
+  /**
+   * Calls {@code action} for every page of the dump. With a single parser thread the
+   * pages are read in order on the calling thread, otherwise the file is split into
+   * {@code parserThreads} partitions that are parsed concurrently and
+   * {@code action} must be thread-safe. Multistream bz2 dumps are always read through
+   * {@link MultistreamPages}, which decompresses on its own thread pool; a
+   * {@link PageCache} is split by blocks instead of byte ranges.
+   */
+  static void forEachPage(int maxPages, String fileName, int parserThreads, Consumer<Page> action) {
+    if (PageCache.isCache(fileName)) {
+      forEachParallel(PageCache.open(fileName).partitions(parserThreads, maxPages), action);
+      return;
+    }
+    if (parserThreads <= 1 || MultistreamPages.isBzip2(fileName)) {
+      for (Page page : Pages.open(maxPages, fileName)) {
+        if (page == null)
+          break;
+        action.accept(page);
+      }
+      return;
+    }
+    System.out.println("Max pages: " + maxPages + " (" + parserThreads + " parser threads)");
+    new PartitionedPages(maxPages, fileName, parserThreads).forEachParallel(action);
+  }
+
+  /**
+   * Parses every partition on its own thread and waits for all of them to finish.
+   */
+  public void forEachParallel(Consumer<Page> action) {
+    forEachParallel(partitions(), action);
+  }
+
+  static void forEachParallel(List<Iterable<Page>> partitions, Consumer<Page> action) {
+    if (partitions.size() == 1) {
+      for (Page page : partitions.get(0))
+        action.accept(page);
+      return;
+    }
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> parsers = new ArrayList<>();
+    for (Iterable<Page> partition : partitions) {
+      Thread parser = new Thread(() -> {
+        try {
+          for (Page page : partition)
+            action.accept(page);
+        } catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+      });
+      parser.start();
+      parsers.add(parser);
+    }
+    try {
+      for (Thread parser : parsers)
+        parser.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (failure.get() != null)
+      throw new RuntimeException("Parser thread failed", failure.get());
+  }
+
+  /**
+   * Returns one page stream per non-empty byte range of the dump.
+   */
+  public List<Iterable<Page>> partitions() {
+    long[] bounds;
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      bounds = boundaries(channel, partitionCount, rangeStart, rangeEnd);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    List<Iterable<Page>> partitions = new ArrayList<>();
+    for (int i = 0; i + 1 < bounds.length; i++) {
+      long start = bounds[i];
+      long end = bounds[i + 1];
+      if (start < end)
+        partitions.add(() -> new BudgetIterator(openRange(fileName, start, end)));
+    }
+    return partitions;
+  }
+
+  // Partition i covers [bounds[i], bounds[i+1]); every bound except the last is a <page> offset
+  static long[] boundaries(FileChannel channel, int parts) throws IOException {
+    return boundaries(channel, parts, 0, Long.MAX_VALUE);
+  }
+
+  // Same for the pages that start in [from, to)
+  static long[] boundaries(FileChannel channel, int parts, long from, long to) throws IOException {
+    long size = channel.size();
+    long end = lastIndexOf(channel, DUMP_END, size);
+    if (end < 0)
+      end = size;
+    end = Math.min(end, to);
+    long[] bounds = new long[parts + 1];
+    from = Math.min(from, end);
+    bounds[0] = indexOf(channel, PAGE_START, from, end);
+    long length = Math.min(size, to) - from;
+    for (int i = 1; i < parts; i++) {
+      long target = Math.max(bounds[i - 1], from + length / parts * i);
+      bounds[i] = indexOf(channel, PAGE_START, target, end);
+    }
+    bounds[parts] = end;
+    return bounds;
+  }
+
+  /**
+   * Splits the dump from {@code from} (a {@code <page>} offset, or 0) into consecutive
+   * ranges of about {@code segmentBytes}, each starting at a {@code <page>} tag; range i
+   * covers [bounds[i], bounds[i+1]).
+   */
+  static long[] segments(FileChannel channel, long from, long segmentBytes) throws IOException {
+    long size = channel.size();
+    long end = lastIndexOf(channel, DUMP_END, size);
+    if (end < 0)
+      end = size;
+    List<Long> bounds = new ArrayList<>();
+    long start = indexOf(channel, PAGE_START, from, end);
+    bounds.add(start);
+    while (start < end) {
+      start = indexOf(channel, PAGE_START, Math.min(end, start + Math.max(1, segmentBytes)), end);
+      bounds.add(start);
+    }
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = bounds.get(i);
+    return result;
+  }
+
+  /**
+   * Parses the pages in [start, end) of a dump; start must be a {@code <page>} offset.
+   */
+  static CursorPages.PageIterator openRange(String fileName, long start, long end) {
+    try {
+      FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+      InputStream body = new RangeInputStream(channel, start, end);
+      InputStream document = new SequenceInputStream(new ByteArrayInputStream(ROOT_START),
+          new SequenceInputStream(body, new ByteArrayInputStream(DUMP_END)));
+      return new CursorPages.PageIterator(document, Integer.MAX_VALUE, false);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Offset of the first occurrence of pattern in [from, limit), or limit when there is none
+  static long indexOf(FileChannel channel, byte[] pattern, long from, long limit) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+    long position = from;
+    while (position < limit) {
+      buffer.clear();
+      buffer.limit((int) Math.min(SCAN_BUFFER, limit - position));
+      int read = channel.read(buffer, position);
+      if (read <= 0)
+        break;
+      int match = find(buffer.array(), read, pattern);
+      if (match >= 0)
+        return position + match;
+      if (read < pattern.length)
+        break;
+      // Overlap consecutive windows so a tag split across them is still found
+      position += read - pattern.length + 1;
+    }
+    return limit;
+  }
+
+  // Offset of the last occurrence of pattern that ends at or before limit, or -1
+  static long lastIndexOf(FileChannel channel, byte[] pattern, long limit) throws IOException {
+    int window = (int) Math.min(SCAN_BUFFER, limit);
+    ByteBuffer buffer = ByteBuffer.allocate(window);
+    channel.read(buffer, limit - window);
+    byte[] bytes = buffer.array();
+    for (int i = buffer.position() - pattern.length; i >= 0; i--)
+      if (matchesAt(bytes, i, pattern))
+        return limit - window + i;
+    return -1;
+  }
+
+  private static int find(byte[] bytes, int length, byte[] pattern) {
+    for (int i = 0; i + pattern.length <= length; i++)
+      if (matchesAt(bytes, i, pattern))
+        return i;
+    return -1;
+  }
+
+  static boolean matchesAt(byte[] bytes, int offset, byte[] pattern) {
+    for (int j = 0; j < pattern.length; j++)
+      if (bytes[offset + j] != pattern[j])
+        return false;
+    return true;
+  }
+
+  // Claims one page from the shared budget before handing it out
+  private class BudgetIterator implements Iterator<Page> {
+
+    private final CursorPages.PageIterator pages;
+    private boolean claimed;
+
+    BudgetIterator(CursorPages.PageIterator pages) {
+      this.pages = pages;
+    }
+
+    public boolean hasNext() {
+      if (claimed)
+        return true;
+      if (!pages.hasNext())
+        return false;
+      if (budget.getAndDecrement() <= 0) {
+        pages.close();
+        return false;
+      }
+      claimed = true;
+      return true;
+    }
+
+    public Page next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      claimed = false;
+      return pages.next();
+    }
+  }
+
+  /**
+   * Positional reads of [start, end) from a channel; closes the channel at the end.
+   */
+  static class RangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    RangeInputStream(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.position = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= end)
+        return -1;
+      int wanted = (int) Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(b, off, wanted), position);
+      if (read < 0)
+        return -1;
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
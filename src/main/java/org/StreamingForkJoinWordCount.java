@@ -0,0 +1,233 @@
+package org;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fork/join word count that does not load the input first. The calling thread parses
+ * page batches into a {@link PagePipeline}; a dispatcher hands every batch to the pool
+ * as soon as it is complete, so parsing overlaps counting, is part of the measured
+ * time, and only {@code queueBatches} batches wait in memory. A batch is split in
+ * halves of equal text length until a part holds at most {@code splitChars} characters
+ * (or a single page), the parts are counted into their own tables and merged back up
+ * the same tree. Each batch result is then folded into a table owned by the pool thread
+ * that finished it, and those tables are combined by a parallel pairwise merge at the
+ * end. In {@code approximate} mode the parts count straight into those per-thread
+ * summaries, since every sketch has its full size from the start.
+ */
+public class StreamingForkJoinWordCount implements WordCountEngine {
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Streaming Fork Join ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Split below: %d chars%n", config.getSplitChars());
+        System.out.println("-----------------------------------------------------");
+
+        new StreamingForkJoinWordCount().run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "StreamingForkJoin";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+
+        PagePipeline pipeline = PagePipeline.forConfig(config);
+        ForkJoinPool pool = new ForkJoinPool(config.getThreadCount());
+        Semaphore batchesInPool = new Semaphore(config.getQueueBatches());
+        // N-gram ids of this run; every summary of the run shares them
+        SymbolTable symbols = new SymbolTable();
+        ThreadSummaries threadCounts = new ThreadSummaries(config.getCountMode(), symbols);
+        AtomicInteger processedPages = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread dispatcher = new Thread(() -> {
+            try {
+                List<Page> batch;
+                while ((batch = pipeline.take()) != null) {
+                    batchesInPool.acquire();
+                    pool.execute(new BatchCount(batch, config, config.getSplitChars(), threadCounts, processedPages,
+                            batchesInPool, failure, pipeline));
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+            }
+        }, "batch-dispatcher");
+        dispatcher.start();
+
+        try {
+            pipeline.produce(config);
+        } catch (RuntimeException e) {
+            // A counting failure aborts the pipeline, which the parser sees as its own error
+            failure.compareAndSet(null, e);
+        } finally {
+            dispatcher.join();
+        }
+        // Every permit is back once the last batch has been folded into its thread's table
+        batchesInPool.acquire(config.getQueueBatches());
+        try {
+            if (failure.get() != null)
+                throw new IllegalStateException("Word count failed", failure.get());
+
+            List<WordSummary> partials = threadCounts.summaries();
+            WordSummary result = partials.isEmpty() ? WordSummary.create(config.getCountMode(), symbols)
+                    : pool.invoke(new MergeTask(partials, 0, partials.size()));
+            long end = System.currentTimeMillis();
+
+            return new EngineResult(name(), config, result, processedPages.get(), end - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Counts one batch and folds the result into the counts of the thread that ran it. */
+    private static final class BatchCount extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private List<Page> pages;
+        private final EngineConfig config;
+        private final int splitChars;
+        private final ThreadSummaries threadCounts;
+        private final AtomicInteger processedPages;
+        private final Semaphore batchesInPool;
+        private final AtomicReference<Throwable> failure;
+        private final PagePipeline pipeline;
+
+        BatchCount(List<Page> pages, EngineConfig config, int splitChars, ThreadSummaries threadCounts,
+                   AtomicInteger processedPages, Semaphore batchesInPool, AtomicReference<Throwable> failure,
+                   PagePipeline pipeline) {
+            this.pages = pages;
+            this.config = config;
+            this.splitChars = splitChars;
+            this.threadCounts = threadCounts;
+            this.processedPages = processedPages;
+            this.batchesInPool = batchesInPool;
+            this.failure = failure;
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // Text length before each page, so a split point is found by binary search
+                long[] offsets = new long[pages.size() + 1];
+                for (int i = 0; i < pages.size(); i++)
+                    offsets[i + 1] = offsets[i] + pages.get(i).getText().length();
+                // Fixed-size summaries are counted straight into the pool threads' own
+                ThreadSummaries shared = ThreadSummaries.perThread(config.getCountMode()) ? threadCounts : null;
+                WordSummary counts = new CountTask(pages, offsets, 0, pages.size(), config, splitChars,
+                        threadCounts.symbols(), shared).invoke();
+                // The subtasks may have run on other threads; fold into the table of the thread we are on now
+                if (counts != null)
+                    threadCounts.fold(counts);
+                processedPages.addAndGet(PagePipeline.pages(pages));
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                pipeline.abort();
+            } finally {
+                pages = null;
+                batchesInPool.release();
+            }
+        }
+    }
+
+    /** Counts pages [from, to) of a batch, split by text length. */
+    static final class CountTask extends RecursiveTask<WordSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Page> pages;
+        private final long[] offsets;
+        private final int from;
+        private final int to;
+        private final EngineConfig config;
+        private final int splitChars;
+        private final SymbolTable symbols;
+        private final ThreadSummaries shared;
+
+        CountTask(List<Page> pages, long[] offsets, int from, int to, EngineConfig config, int splitChars,
+                  SymbolTable symbols, ThreadSummaries shared) {
+            this.pages = pages;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+            this.config = config;
+            this.splitChars = splitChars;
+            this.symbols = symbols;
+            this.shared = shared;
+        }
+
+        @Override
+        protected WordSummary compute() {
+            if (to - from <= 1 || offsets[to] - offsets[from] <= splitChars) {
+                WordSummary counts = shared != null ? shared.local() : WordSummary.create(config.getCountMode(), symbols);
+                long begin = System.nanoTime();
+                long tokens = 0;
+                for (int i = from; i < to; i++) {
+                    tokens += counts.incrementAll(Words.tokens(pages.get(i).getText()));
+                }
+                Metrics.batchCounted(to - from, offsets[to] - offsets[from], tokens, begin);
+                return shared != null ? null : counts;
+            }
+            int mid = middle();
+            CountTask left = new CountTask(pages, offsets, from, mid, config, splitChars, symbols, shared);
+            CountTask right = new CountTask(pages, offsets, mid, to, config, splitChars, symbols, shared);
+            left.fork();
+            WordSummary rightCounts = right.compute();
+            return ThreadSummaries.combine(left.join(), rightCounts);
+        }
+
+        // First page whose text starts in the second half of [from, to); never from or to
+        private int middle() {
+            long half = (offsets[from] + offsets[to]) / 2;
+            int low = from + 1;
+            int high = to - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (offsets[mid] < half)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    /** Pairwise merge of the per-thread tables, both halves in parallel. */
+    static final class MergeTask extends RecursiveTask<WordSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<WordSummary> parts;
+        private final int from;
+        private final int to;
+
+        MergeTask(List<WordSummary> parts, int from, int to) {
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WordSummary compute() {
+            if (to - from == 1)
+                return parts.get(from);
+            int mid = (from + to) >>> 1;
+            MergeTask left = new MergeTask(parts, from, mid);
+            left.fork();
+            WordSummary right = new MergeTask(parts, mid, to).compute();
+            return left.join().combine(right);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package org;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Word count that reports while it runs. Workers count into private per-epoch deltas;
+ * every {@code snapshotPages} pages or {@code snapshotSeconds} seconds a snapshot
+ * thread opens a new epoch, collects the deltas the workers hand over at their next
+ * batch boundary, folds them into the running totals and prints the current top-K with
+ * the throughput since the previous snapshot. Workers never wait for a snapshot: they
+ * only swap their delta for an empty one. Each snapshot is consistent, i.e. it holds
+ * exactly the pages of the batches that finished before the epoch changed, and the page
+ * and MB figures count the same pages.
+ *
+ * <p>With {@code -Dfollow=DIR} the engine does not stop after one dump: it keeps
+ * reading the dumps that land in {@code DIR} (see {@link DumpDirectory}) until no new
+ * file arrived for {@code followIdleSeconds} seconds (0 means forever).
+ */
+public class StreamingWordCount implements WordCountEngine {
+
+    // How long an idle worker waits for a batch before looking for a new epoch
+    private static final long POLL_MILLIS = 100;
+
+    private final long snapshotPages;
+    private final long snapshotMillis;
+    private final Path followDirectory;
+    private final long followIdleMillis;
+
+    StreamingWordCount(long snapshotPages, long snapshotSeconds, Path followDirectory, long followIdleSeconds) {
+        this.snapshotPages = snapshotPages;
+        this.snapshotMillis = TimeUnit.SECONDS.toMillis(snapshotSeconds);
+        this.followDirectory = followDirectory;
+        this.followIdleMillis = TimeUnit.SECONDS.toMillis(followIdleSeconds);
+    }
+
+    static StreamingWordCount fromSystemProperties() {
+        String follow = System.getProperty("follow");
+        return new StreamingWordCount(Long.getLong("snapshotPages", 10000), Long.getLong("snapshotSeconds", 10),
+                follow == null ? null : Paths.get(follow), Long.getLong("followIdleSeconds", 0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        StreamingWordCount engine = fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Streaming ===");
+        System.out.printf("Processing %s: %s%n", engine.followDirectory == null ? "file" : "directory",
+                engine.followDirectory == null ? config.describeSource() : engine.followDirectory);
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Snapshots: every %d pages or %d s%n", engine.snapshotPages, engine.snapshotMillis / 1000);
+        System.out.println("-----------------------------------------------------");
+
+        engine.run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "Streaming";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+        PagePipeline pipeline = PagePipeline.forConfig(config);
+        Snapshots snapshots = new Snapshots(config, start);
+        // First failure of a worker or of the parser; the run fails instead of returning partial counts
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < config.getThreadCount(); i++) {
+            Worker worker = new Worker(pipeline, snapshots, config, failure);
+            Thread thread = new Thread(worker, "streaming-worker-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        snapshots.workers = workers;
+
+        Thread snapshotter = new Thread(() -> snapshotLoop(snapshots), "snapshotter");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+
+        try {
+            if (followDirectory == null) {
+                pipeline.feed(config);
+            } else {
+                follow(pipeline, config);
+            }
+        } catch (Exception | Error e) {
+            // After a worker failure this is the pipeline abort; the worker's cause was recorded first
+            failure.compareAndSet(null, e);
+            pipeline.abort();
+        } finally {
+            pipeline.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            snapshotter.interrupt();
+            snapshotter.join();
+        }
+        if (failure.get() != null) {
+            if (failure.get() instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            snapshots.totals.release();
+            throw new IllegalStateException("Streaming word count failed", failure.get());
+        }
+
+        // Every worker has handed over its last delta
+        snapshots.take(true);
+        long end = System.currentTimeMillis();
+        return new EngineResult(name(), config, snapshots.totals, (int) snapshots.pages, end - start);
+    }
+
+    // Feeds every dump that appears in the followed directory until it stays idle long enough
+    private void follow(PagePipeline pipeline, EngineConfig config) throws Exception {
+        DumpDirectory directory = new DumpDirectory(followDirectory);
+        long lastFile = System.currentTimeMillis();
+        while (followIdleMillis == 0 || System.currentTimeMillis() - lastFile < followIdleMillis) {
+            List<Path> files = directory.newFiles();
+            for (Path file : files) {
+                System.out.println("Reading " + file);
+                pipeline.feed(config.withFileName(file.toString()));
+                lastFile = System.currentTimeMillis();
+            }
+            if (files.isEmpty())
+                Thread.sleep(1000);
+        }
+        System.out.println("No new dumps for " + followIdleMillis / 1000 + " s, stopping");
+    }
+
+    private void snapshotLoop(Snapshots snapshots) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(POLL_MILLIS);
+                if (snapshots.due(snapshotPages, snapshotMillis))
+                    snapshots.take(false);
+            }
+        } catch (InterruptedException e) {
+            // run() takes the final snapshot
+        }
+    }
+
+    // What a worker counted in one epoch
+    private static final class Delta {
+        final WordSummary counts;
+        final long pages;
+        final long chars;
+
+        Delta(WordSummary counts, long pages, long chars) {
+            this.counts = counts;
+            this.pages = pages;
+            this.chars = chars;
+        }
+    }
+
+    /** Running totals, owned by whichever thread is taking a snapshot. */
+    private static final class Snapshots {
+        private final EngineConfig config;
+        private final long startMillis;
+        // N-gram ids of this run; the totals and every worker's deltas share them
+        private final SymbolTable symbols = new SymbolTable();
+        private final ConcurrentLinkedQueue<Delta> handedOver = new ConcurrentLinkedQueue<>();
+        // Pages counted by the workers so far, read to decide when the next snapshot is due
+        private final AtomicLong pagesCounted = new AtomicLong();
+        private volatile long epoch;
+        private volatile List<Worker> workers;
+
+        private WordSummary totals;
+        private long pages;
+        private long chars;
+        private int number;
+        private long lastMillis;
+        private long lastPages;
+        private long lastChars;
+
+        Snapshots(EngineConfig config, long startMillis) {
+            this.config = config;
+            this.startMillis = startMillis;
+            this.totals = WordSummary.create(config.getCountMode(), symbols);
+            this.lastMillis = startMillis;
+        }
+
+        boolean due(long everyPages, long everyMillis) {
+            return pagesCounted.get() - lastPages >= everyPages
+                    || System.currentTimeMillis() - lastMillis >= everyMillis;
+        }
+
+        /**
+         * Opens a new epoch, waits until every worker has handed over the delta of the
+         * previous one, folds the deltas into the totals and prints the snapshot.
+         */
+        synchronized void take(boolean last) {
+            long next = epoch + 1;
+            epoch = next;
+            for (Worker worker : workers) {
+                while (worker.handedOverEpoch < next)
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            for (Delta delta; (delta = handedOver.poll()) != null; ) {
+                totals = totals.combine(delta.counts);
+                pages += delta.pages;
+                chars += delta.chars;
+            }
+            print(last);
+        }
+
+        private void print(boolean last) {
+            long now = System.currentTimeMillis();
+            double seconds = Math.max(1, now - lastMillis) / 1000.0;
+            StringBuilder top = new StringBuilder();
+            for (TopK.WordFrequency entry : totals.top(config.getTopK())) {
+                if (top.length() > 0)
+                    top.append(", ");
+                top.append(entry.word).append('=').append(entry.count);
+            }
+            System.out.printf(Locale.ROOT, "%s #%d at %.1f s: %d pages, %.1f MB | %.1f pages/s, %.2f MB/s | %s%n",
+                    last ? "Final snapshot" : "Snapshot", ++number, (now - startMillis) / 1000.0, pages, chars / 1e6,
+                    (pages - lastPages) / seconds, (chars - lastChars) / 1e6 / seconds, top);
+            lastMillis = now;
+            lastPages = pages;
+            lastChars = chars;
+        }
+    }
+
+    // Counts batches into its current delta and swaps the delta out when the epoch changes
+    private static final class Worker implements Runnable {
+        private final PagePipeline pipeline;
+        private final Snapshots snapshots;
+        private final EngineConfig config;
+        private final AtomicReference<Throwable> failure;
+        private WordSummary counts;
+        private long pages;
+        private long chars;
+        private long epoch;
+        volatile long handedOverEpoch;
+
+        Worker(PagePipeline pipeline, Snapshots snapshots, EngineConfig config, AtomicReference<Throwable> failure) {
+            this.pipeline = pipeline;
+            this.snapshots = snapshots;
+            this.config = config;
+            this.failure = failure;
+            this.counts = WordSummary.create(config.getCountMode(), snapshots.symbols);
+        }
+
+        @Override
+        public void run() {
+            boolean failed = true;
+            try {
+                while (true) {
+                    List<Page> batch = pipeline.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        long begin = System.nanoTime();
+                        long tokens = 0;
+                        long batchChars = 0;
+                        for (Page page : batch) {
+                            tokens += counts.incrementAll(Words.tokens(page.getText()));
+                            batchChars += page.getText().length();
+                        }
+                        Metrics.batchCounted(batch.size(), batchChars, tokens, begin);
+                        chars += batchChars;
+                        int batchPages = PagePipeline.pages(batch);
+                        pages += batchPages;
+                        snapshots.pagesCounted.addAndGet(batchPages);
+                    } else if (pipeline.isFinished()) {
+                        break;
+                    }
+                    if (snapshots.epoch != epoch)
+                        handOver(snapshots.epoch);
+                }
+                failed = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+                pipeline.abort();
+            } finally {
+                if (failed) {
+                    // The half-counted delta is dropped; snapshots must still not wait for this worker
+                    counts.release();
+                    handedOverEpoch = Long.MAX_VALUE;
+                } else {
+                    // The last delta belongs to every epoch still to come
+                    handOver(Long.MAX_VALUE);
+                }
+            }
+        }
+
+        private void handOver(long newEpoch) {
+            snapshots.handedOver.add(new Delta(counts, pages, chars));
+            counts = WordSummary.create(config.getCountMode(), snapshots.symbols);
+            pages = 0;
+            chars = 0;
+            epoch = newEpoch;
+            handedOverEpoch = newEpoch;
+        }
+    }
+}
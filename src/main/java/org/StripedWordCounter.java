@@ -0,0 +1,108 @@
+package org;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts into hash-striped {@link CountTable} shards, each guarded by its own lock, so
+ * workers only collide when they hit the same shard. Words whose count passes
+ * {@link #HOT_THRESHOLD} ("the", "of", ...) are promoted to a small copy-on-write table
+ * of {@link LongAdder} cells that is read without locking, which takes the hottest
+ * keys off the shard locks altogether.
+ */
+class StripedWordCounter implements WordCounter {
+
+  static final long HOT_THRESHOLD = 1 << 14;
+  private static final int MAX_HOT_KEYS = 256;
+
+  private final CountTable[] shards;
+  private final int shardShift;
+  // Open-addressed, never modified in place: promotion publishes a new array
+  private volatile HotKey[] hot = new HotKey[MAX_HOT_KEYS * 2];
+  private int hotCount;
+
+  private static final class HotKey {
+    final char[] key;
+    final int hash;
+    final LongAdder adder = new LongAdder();
+
+    HotKey(char[] key, int hash) {
+      this.key = key;
+      this.hash = hash;
+    }
+
+    boolean matches(CharSequence word, int length, int hash) {
+      if (this.hash != hash || key.length != length)
+        return false;
+      for (int i = 0; i < length; i++)
+        if (key[i] != word.charAt(i))
+          return false;
+      return true;
+    }
+  }
+
+  public StripedWordCounter(int threads) {
+    int count = 1;
+    while (count < threads * 4)
+      count <<= 1;
+    shards = new CountTable[count];
+    for (int i = 0; i < count; i++)
+      shards[i] = new CountTable();
+    // Shards are picked by the high hash bits; the tables probe with the low ones
+    shardShift = 32 - Integer.numberOfTrailingZeros(count);
+  }
+
+  @Override
+  public void count(CharSequence word) {
+    int length = word.length();
+    int hash = CountTable.hash(word, length);
+    HotKey[] table = hot;
+    int mask = table.length - 1;
+    for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+      if (table[slot].matches(word, length, hash)) {
+        table[slot].adder.increment();
+        return;
+      }
+    }
+    CountTable shard = shards[shardShift == 32 ? 0 : hash >>> shardShift];
+    long count;
+    synchronized (shard) {
+      count = shard.add(word, length, hash, 1);
+    }
+    if (count == HOT_THRESHOLD)
+      promote(word, length, hash);
+  }
+
+  private synchronized void promote(CharSequence word, int length, int hash) {
+    if (hotCount >= MAX_HOT_KEYS)
+      return;
+    char[] key = new char[length];
+    for (int i = 0; i < length; i++)
+      key[i] = word.charAt(i);
+    HotKey[] table = hot.clone();
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != null) {
+      if (table[slot].matches(word, length, hash))
+        return;
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = new HotKey(key, hash);
+    ++hotCount;
+    hot = table;
+  }
+
+  @Override
+  public CountTable result() {
+    CountTable merged = new CountTable();
+    for (CountTable shard : shards) {
+      synchronized (shard) {
+        merged.addAll(shard);
+      }
+    }
+    // Hot words keep the count they reached in their shard; the cells hold the rest
+    for (HotKey key : hot)
+      if (key != null)
+        merged.add(key.key, 0, key.key.length, key.adder.sum());
+    return merged;
+  }
+}
@@ -0,0 +1,59 @@
+package org;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent dictionary that gives every distinct word a dense int id, starting at 0.
+ * Lookups of known words do not lock; a new word is added under the table's lock, so
+ * ids are never handed out twice. One table is shared by the workers of a run; callers
+ * are expected to cache ids in a table of their own (see
+ * {@link #id(CharSequence, CountTable)}), so the shared map is only asked once per word
+ * and cache.
+ */
+final class SymbolTable {
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  // Guarded by this; read without the lock only after the counting threads were joined
+  private String[] words = new String[1024];
+  private int size;
+
+  /** The id of {@code word}, assigning the next free one if the word is new. */
+  int id(String word) {
+    Integer id = ids.get(word);
+    if (id != null)
+      return id;
+    synchronized (this) {
+      id = ids.get(word);
+      if (id != null)
+        return id;
+      if (size == words.length)
+        words = Arrays.copyOf(words, size * 2);
+      words[size] = word;
+      ids.put(word, size);
+      return size++;
+    }
+  }
+
+  /**
+   * Like {@link #id(String)}, but first looks the word up in {@code cache}, a table of the
+   * caller's own that maps words to their id + 1, and adds it there if it was missing.
+   */
+  int id(CharSequence word, CountTable cache) {
+    long cached = cache.get(word);
+    if (cached != 0)
+      return (int) (cached - 1);
+    int id = id(word.toString());
+    cache.add(word, id + 1L);
+    return id;
+  }
+
+  /** The word with id {@code id}. */
+  synchronized String word(int id) {
+    return words[id];
+  }
+
+  synchronized int size() {
+    return size;
+  }
+}
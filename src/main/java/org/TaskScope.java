@@ -0,0 +1,113 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Structured fan-out with the semantics of {@code StructuredTaskScope.ShutdownOnFailure}
+ * (a preview API up to Java 24, so not usable from Java 17 code): every forked task runs
+ * on its own thread, the first failure interrupts all other tasks, and the scope does
+ * not close before all of its threads have ended.
+ *
+ * <pre>
+ * try (TaskScope scope = new TaskScope(factory)) {
+ *   Supplier&lt;A&gt; a = scope.fork(...);
+ *   Supplier&lt;B&gt; b = scope.fork(...);
+ *   scope.join();
+ *   scope.throwIfFailed();
+ *   use(a.get(), b.get());
+ * }
+ * </pre>
+ */
+final class TaskScope implements AutoCloseable {
+
+  private final ThreadFactory factory;
+  private final List<Thread> threads = new ArrayList<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private volatile boolean shutdown;
+
+  TaskScope(ThreadFactory factory) {
+    this.factory = factory;
+  }
+
+  private static final class Subtask<T> implements Supplier<T> {
+    private volatile T result;
+    private volatile boolean done;
+
+    @Override
+    public T get() {
+      if (!done)
+        throw new IllegalStateException("Subtask has not completed successfully");
+      return result;
+    }
+  }
+
+  /**
+   * Starts {@code task} on a new thread; its result is available from the returned
+   * supplier after {@link #join} if it completed successfully.
+   */
+  synchronized <T> Supplier<T> fork(Callable<T> task) {
+    if (shutdown)
+      throw new IllegalStateException("Task scope is shut down");
+    Subtask<T> subtask = new Subtask<>();
+    Thread thread = factory.newThread(() -> {
+      try {
+        subtask.result = task.call();
+        subtask.done = true;
+      } catch (Throwable t) {
+        if (failure.compareAndSet(null, t))
+          shutdown();
+      }
+    });
+    threads.add(thread);
+    thread.start();
+    return subtask;
+  }
+
+  /** Waits until every forked task has completed or the scope was shut down by a failure. */
+  void join() throws InterruptedException {
+    for (Thread thread : snapshot())
+      thread.join();
+  }
+
+  /** Rethrows the first failure of a forked task, if any. */
+  void throwIfFailed() throws ExecutionException {
+    Throwable first = failure.get();
+    if (first != null)
+      throw new ExecutionException(first);
+  }
+
+  /** Interrupts every task that is still running. */
+  void shutdown() {
+    shutdown = true;
+    for (Thread thread : snapshot())
+      thread.interrupt();
+  }
+
+  @Override
+  public void close() {
+    shutdown();
+    boolean interrupted = false;
+    for (Thread thread : snapshot()) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+          shutdown();
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private synchronized List<Thread> snapshot() {
+    return new ArrayList<>(threads);
+  }
+}
@@ -0,0 +1,87 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One {@link WordSummary} per thread of a pool. Fork/join leaves normally count into a
+ * summary of their own and merge it up the task tree; for the {@code approximate} mode,
+ * whose summaries cost their full size however few words they hold, a leaf counts into
+ * the summary of the thread it runs on instead (see {@link #perThread}). Only the owning
+ * thread touches a summary until {@link #summaries} is called, which must happen after
+ * the tasks have finished (a join, an invoke or a semaphore orders their writes).
+ */
+final class ThreadSummaries {
+
+  // Counts of one thread; combine may return another summary than the one it was called on
+  private static final class Own {
+    WordSummary summary;
+
+    Own(WordSummary summary) {
+      this.summary = summary;
+    }
+  }
+
+  private final String mode;
+  private final SymbolTable symbols;
+  private final Queue<Own> all = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<Own> own;
+
+  ThreadSummaries(String mode, SymbolTable symbols) {
+    this.mode = mode;
+    this.symbols = symbols;
+    this.own = ThreadLocal.withInitial(() -> {
+      Own counts = new Own(WordSummary.create(mode, symbols));
+      all.add(counts);
+      return counts;
+    });
+  }
+
+  /** True if leaves should count into per-thread summaries in {@code mode}. */
+  static boolean perThread(String mode) {
+    return "approximate".equals(mode);
+  }
+
+  /** The symbol table the summaries were created with. */
+  SymbolTable symbols() {
+    return symbols;
+  }
+
+  /** The summary of the calling thread, created on first use. */
+  WordSummary local() {
+    return own.get().summary;
+  }
+
+  /** Folds {@code counts} into the summary of the calling thread. */
+  void fold(WordSummary counts) {
+    Own current = own.get();
+    current.summary = current.summary.combine(counts);
+  }
+
+  /** The summary of every thread that counted something. */
+  List<WordSummary> summaries() {
+    List<WordSummary> summaries = new ArrayList<>();
+    for (Own counts : all)
+      summaries.add(counts.summary);
+    return summaries;
+  }
+
+  /** All summaries folded into one, or an empty one if no thread counted. */
+  WordSummary combined() {
+    WordSummary result = null;
+    for (Own counts : all)
+      result = result == null ? counts.summary : result.combine(counts.summary);
+    return result == null ? WordSummary.create(mode, symbols) : result;
+  }
+
+  /** {@code left} and {@code right} combined, where null stands for counts kept per thread. */
+  static WordSummary combine(WordSummary left, WordSummary right) {
+    if (left == null)
+      return right;
+    if (right == null)
+      return left;
+    return left.combine(right);
+  }
+}
@@ -0,0 +1,155 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Selects the K most frequent words of a {@link CountTable} without sorting or copying
+ * the vocabulary. The slot array is split into ranges that are scanned in parallel,
+ * each keeping a bounded min-heap of slot indices; only the K winners of every range
+ * become {@code String}s, and the partial results are merged into the final list.
+ * Ties are broken alphabetically so the output does not depend on table layout.
+ */
+final class TopK {
+
+  /** K used for reporting, from the {@code topK} system property. */
+  static final int DEFAULT_K = Integer.getInteger("topK", 3);
+
+  // Below this many slots a single sequential scan is cheaper than forking
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  static final class WordFrequency {
+    final String word;
+    final long count;
+
+    WordFrequency(String word, long count) {
+      this.word = word;
+      this.count = count;
+    }
+
+    public String getWord() { return word; }
+    public long getCount() { return count; }
+  }
+
+  static final Comparator<WordFrequency> MOST_FREQUENT_FIRST =
+      Comparator.comparingLong(WordFrequency::getCount).reversed().thenComparing(WordFrequency::getWord);
+
+  private TopK() {
+  }
+
+  public static List<WordFrequency> select(CountTable table, int k) {
+    int capacity = table.capacity();
+    if (k <= 0)
+      return Collections.emptyList();
+    if (capacity < PARALLEL_THRESHOLD)
+      return selectRange(table, 0, capacity, k);
+    int ranges = Runtime.getRuntime().availableProcessors() * 4;
+    int step = (capacity + ranges - 1) / ranges;
+    List<List<WordFrequency>> partials = IntStream.range(0, ranges).parallel()
+        .mapToObj(r -> selectRange(table, r * step, Math.min(capacity, (r + 1) * step), k))
+        .collect(Collectors.toList());
+    return merge(partials, k);
+  }
+
+  /**
+   * Merges partial top-K lists of disjoint key sets (ranges, shards) into the overall top K.
+   */
+  public static List<WordFrequency> merge(List<List<WordFrequency>> partials, int k) {
+    PriorityQueue<WordFrequency> heap = new PriorityQueue<>(k + 1, MOST_FREQUENT_FIRST.reversed());
+    for (List<WordFrequency> partial : partials) {
+      for (WordFrequency candidate : partial) {
+        heap.add(candidate);
+        if (heap.size() > k)
+          heap.poll();
+      }
+    }
+    List<WordFrequency> top = new ArrayList<>(heap);
+    top.sort(MOST_FREQUENT_FIRST);
+    return top;
+  }
+
+  // Bounded min-heap of slot indices over [from, to); the root is the weakest candidate
+  private static List<WordFrequency> selectRange(CountTable table, int from, int to, int k) {
+    int[] heap = new int[k];
+    int size = 0;
+    for (int slot = from; slot < to; slot++) {
+      if (!table.isOccupied(slot))
+        continue;
+      if (size < k) {
+        heap[size] = slot;
+        siftUp(table, heap, size++);
+      } else if (weaker(table, heap[0], slot)) {
+        heap[0] = slot;
+        siftDown(table, heap, size);
+      }
+    }
+    List<WordFrequency> top = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      top.add(new WordFrequency(table.keyAt(heap[i]), table.countAt(heap[i])));
+    top.sort(MOST_FREQUENT_FIRST);
+    return top;
+  }
+
+  // True if slot a ranks below slot b
+  private static boolean weaker(CountTable table, int a, int b) {
+    long countA = table.countAt(a);
+    long countB = table.countAt(b);
+    if (countA != countB)
+      return countA < countB;
+    return table.compareKeys(a, b) > 0;
+  }
+
+  private static void siftUp(CountTable table, int[] heap, int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!weaker(table, heap[index], heap[parent]))
+        break;
+      swap(heap, index, parent);
+      index = parent;
+    }
+  }
+
+  private static void siftDown(CountTable table, int[] heap, int size) {
+    int index = 0;
+    while (true) {
+      int left = 2 * index + 1;
+      if (left >= size)
+        return;
+      int weakest = left;
+      if (left + 1 < size && weaker(table, heap[left + 1], heap[left]))
+        weakest = left + 1;
+      if (!weaker(table, heap[weakest], heap[index]))
+        return;
+      swap(heap, index, weakest);
+      index = weakest;
+    }
+  }
+
+  private static void swap(int[] heap, int i, int j) {
+    int tmp = heap[i];
+    heap[i] = heap[j];
+    heap[j] = tmp;
+  }
+
+  /**
+   * Selects the top {@code k} words and prints them in the engines' report format,
+   * together with the time the selection took.
+   */
+  static List<WordFrequency> report(CountTable table, int k) {
+    long start = System.currentTimeMillis();
+    List<WordFrequency> top = select(table, k);
+    print(top, k, System.currentTimeMillis() - start);
+    return top;
+  }
+
+  static void print(List<WordFrequency> top, int k, long selectionMillis) {
+    System.out.println("Top-" + k + " selection time: " + selectionMillis + " ms");
+    for (WordFrequency entry : top)
+      System.out.println("Word: '" + entry.word + "' with total " + entry.count + " occurrences!");
+  }
+}
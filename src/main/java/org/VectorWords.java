@@ -0,0 +1,291 @@
+package org;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link FastWords} with the per-character classification done by the Vector API. The
+ * text is first classified as a whole, a vector of chars at a time, into three bitmaps
+ * with one bit per char: word characters (letters and digits, including Latin-1 and
+ * Latin Extended letters), separators, and characters the fast path cannot classify
+ * (other non-ASCII). The iterator then finds chunks, word starts and word ends by
+ * scanning the bitmaps a 64-bit word at a time; only the join rules at the end of a run
+ * of word characters ({@code don't}, {@code 3.14}, {@code 50%}) look at single chars.
+ * A chunk holding an unclassifiable char goes to the same {@link FastWords.Fallback} as
+ * in the fast path, so the tokens are exactly those of {@link FastWords}.
+ *
+ * <p>Needs {@code --add-modules jdk.incubator.vector}; {@link Words} checks for the module
+ * before it loads this class. Not thread-safe; an iterator is used on the thread that
+ * created it. Every new iterator takes over the buffers of its thread, so an iterator
+ * that is dropped before the end holds nothing up; one that is still in use when they
+ * are taken (nested iteration) classifies its text again into buffers of its own.
+ */
+final class VectorWords implements Iterable<CharSequence> {
+
+  private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+  // Lane k of WEIGHTS is 1 << (k % 16); GROUPS[g] selects lanes 16g to 16g + 15
+  private static final ShortVector ZERO = ShortVector.zero(SPECIES);
+  private static final ShortVector WEIGHTS;
+  private static final VectorMask<Short>[] GROUPS;
+
+  static {
+    short[] weights = new short[LANES];
+    for (int k = 0; k < LANES; k++)
+      weights[k] = (short) (1 << (k & 15));
+    WEIGHTS = ShortVector.fromArray(SPECIES, weights, 0);
+    @SuppressWarnings("unchecked")
+    VectorMask<Short>[] groups = (VectorMask<Short>[]) new VectorMask<?>[Math.max(1, LANES / 16)];
+    for (int g = 0; g < groups.length; g++) {
+      boolean[] lanes = new boolean[LANES];
+      for (int k = 0; k < LANES; k++)
+        lanes[k] = k >>> 4 == g;
+      groups[g] = VectorMask.fromArray(SPECIES, lanes, 0);
+    }
+    GROUPS = groups;
+  }
+
+  // Per-thread copy of the text and its bitmaps, taken over by every new iterator
+  private static final class Buffers {
+    char[] chars = new char[0];
+    long[] word = new long[0];
+    long[] separator = new long[0];
+    long[] slow = new long[0];
+    // Bumped whenever an iterator takes the buffers over
+    int generation;
+  }
+
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+  private final String text;
+
+  VectorWords(String text) {
+    this.text = text;
+  }
+
+  @Override
+  public Iterator<CharSequence> iterator() {
+    Buffers buffers = BUFFERS.get();
+    ++buffers.generation;
+    classify(text, buffers);
+    return new WordIterator(buffers);
+  }
+
+  private static void classify(String text, Buffers buffers) {
+    int length = text.length();
+    if (buffers.chars.length < length)
+      buffers.chars = new char[Math.max(length, buffers.chars.length * 2)];
+    int words = (length >>> 6) + 1;
+    if (buffers.word.length < words) {
+      int capacity = Math.max(words, buffers.word.length * 2);
+      buffers.word = new long[capacity];
+      buffers.separator = new long[capacity];
+      buffers.slow = new long[capacity];
+    }
+    char[] chars = buffers.chars;
+    long[] word = buffers.word;
+    long[] separator = buffers.separator;
+    long[] slow = buffers.slow;
+    text.getChars(0, length, chars, 0);
+    Arrays.fill(word, 0, words, 0);
+    Arrays.fill(separator, 0, words, 0);
+    Arrays.fill(slow, 0, words, 0);
+
+    // LANES divides 64, so a vector never straddles two bitmap words
+    int vectorEnd = SPECIES.loopBound(length);
+    for (int i = 0; i < vectorEnd; i += LANES) {
+      ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+      VectorMask<Short> ascii = v.compare(VectorOperators.UNSIGNED_LT, (short) 0x80);
+      // 'A'-'Z' and 'a'-'z' are the chars that land in 'a'-'z' once bit 5 is set
+      VectorMask<Short> letter = v.or((short) 0x20).sub((short) 'a').compare(VectorOperators.UNSIGNED_LT, (short) 26);
+      VectorMask<Short> digit = v.sub((short) '0').compare(VectorOperators.UNSIGNED_LT, (short) 10);
+      VectorMask<Short> latin = v.sub((short) 0xC0).compare(VectorOperators.UNSIGNED_LT, (short) (0x250 - 0xC0))
+          .andNot(v.compare(VectorOperators.EQ, (short) 0xD7))
+          .andNot(v.compare(VectorOperators.EQ, (short) 0xF7));
+      // '\t' '\n' '\f' '\r' (9 to 13 without 11) and ' '
+      VectorMask<Short> space = v.sub((short) '\t').compare(VectorOperators.UNSIGNED_LT, (short) 5)
+          .andNot(v.compare(VectorOperators.EQ, (short) 11))
+          .or(v.compare(VectorOperators.EQ, (short) ' '));
+      int shift = i & 63;
+      word[i >>> 6] |= bits(letter.or(digit).or(latin)) << shift;
+      separator[i >>> 6] |= bits(space) << shift;
+      VectorMask<Short> other = ascii.or(latin).not();
+      if (other.anyTrue())
+        slow[i >>> 6] |= bits(other) << shift;
+    }
+    for (int i = vectorEnd; i < length; i++) {
+      char c = chars[i];
+      long bit = 1L << (i & 63);
+      if (FastWords.isLetter(c) || FastWords.isDigit(c))
+        word[i >>> 6] |= bit;
+      if (FastWords.isSeparator(c))
+        separator[i >>> 6] |= bit;
+      if (!FastWords.isFastPath(c))
+        slow[i >>> 6] |= bit;
+    }
+  }
+
+  // The lanes of mask as bits; VectorMask.toLong is not an intrinsic on JDK 17 and allocates
+  private static long bits(VectorMask<Short> mask) {
+    ShortVector weighted = ZERO.blend(WEIGHTS, mask);
+    long bits = 0;
+    for (int g = 0; g < GROUPS.length; g++)
+      bits |= (weighted.reduceLanes(VectorOperators.OR, GROUPS[g]) & 0xFFFFL) << (g << 4);
+    return bits;
+  }
+
+  // First index in [from, limit) whose bit is set, or limit
+  private static int nextSet(long[] bits, int from, int limit) {
+    if (from >= limit)
+      return limit;
+    int w = from >>> 6;
+    long current = bits[w] & (-1L << from);
+    while (current == 0) {
+      if (++w << 6 >= limit)
+        return limit;
+      current = bits[w];
+    }
+    return Math.min(limit, (w << 6) + Long.numberOfTrailingZeros(current));
+  }
+
+  // First index in [from, limit) whose bit is clear, or limit
+  private static int nextClear(long[] bits, int from, int limit) {
+    if (from >= limit)
+      return limit;
+    int w = from >>> 6;
+    long current = ~bits[w] & (-1L << from);
+    while (current == 0) {
+      if (++w << 6 >= limit)
+        return limit;
+      current = ~bits[w];
+    }
+    return Math.min(limit, (w << 6) + Long.numberOfTrailingZeros(current));
+  }
+
+  private class WordIterator implements Iterator<CharSequence> {
+
+    private final FastWords.Window window = new FastWords.Window();
+    private final int length = text.length();
+    private Buffers buffers;
+    private int generation;
+    private char[] chars;
+    private long[] word;
+    private long[] separator;
+    private long[] slow;
+    private int position;
+    private boolean ready;
+    // End of the current chunk handled through the bitmaps
+    private int fastChunkEnd;
+    private FastWords.Fallback fallback;
+    private int chunkEnd = -1;
+
+    WordIterator(Buffers buffers) {
+      use(buffers);
+      window.text = text;
+    }
+
+    private void use(Buffers buffers) {
+      this.buffers = buffers;
+      this.generation = buffers.generation;
+      this.chars = buffers.chars;
+      this.word = buffers.word;
+      this.separator = buffers.separator;
+      this.slow = buffers.slow;
+    }
+
+    public boolean hasNext() {
+      if (!ready) {
+        // A later iterator on this thread reclassified the shared buffers; the bitmaps only
+        // depend on the text, so classifying it again lets this one go on where it stopped
+        if (buffers.generation != generation && position < length) {
+          Buffers own = new Buffers();
+          classify(text, own);
+          use(own);
+        }
+        ready = advance();
+      }
+      return ready;
+    }
+
+    public CharSequence next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      ready = false;
+      return window;
+    }
+
+    private boolean advance() {
+      while (true) {
+        if (chunkEnd >= 0) {
+          if (fallback.next(window))
+            return true;
+          position = chunkEnd;
+          chunkEnd = -1;
+        }
+        if (position >= fastChunkEnd) {
+          position = nextClear(separator, position, length);
+          if (position >= length)
+            return false;
+          int end = nextSet(separator, position, length);
+          if (nextSet(slow, position, end) < end) {
+            if (fallback == null)
+              fallback = new FastWords.Fallback();
+            fallback.start(text, position, end);
+            chunkEnd = end;
+            continue;
+          }
+          fastChunkEnd = end;
+        }
+        int next = nextSet(word, position, fastChunkEnd);
+        if (next >= fastChunkEnd) {
+          position = fastChunkEnd;
+          continue;
+        }
+        // A number prefix right before a digit starts the word, as in FastWords
+        int start = next > position && FastWords.isNumberPrefix(chars[next - 1]) && FastWords.isDigit(chars[next])
+            ? next - 1 : next;
+        position = scanWord(start, fastChunkEnd);
+        if (FastWords.accept(text, start, position)) {
+          window.start = start;
+          window.end = position;
+          return true;
+        }
+      }
+    }
+
+    // FastWords.scanWord with the runs of word characters taken from the bitmap
+    private int scanWord(int start, int limit) {
+      int i = start;
+      if (FastWords.isNumberPrefix(chars[i]))
+        ++i;
+      while (true) {
+        i = nextClear(word, i, limit);
+        if (i >= limit)
+          return i;
+        char c = chars[i];
+        char previous = chars[i - 1];
+        if (i + 1 < limit) {
+          char following = chars[i + 1];
+          if (FastWords.isMidLetter(c) && FastWords.isLetter(previous) && FastWords.isLetter(following)) {
+            i += 2;
+            continue;
+          }
+          if (FastWords.isMidNum(c) && FastWords.isDigit(previous) && FastWords.isDigit(following)) {
+            i += 2;
+            continue;
+          }
+        }
+        if (FastWords.isNumberSuffix(c) && FastWords.isDigit(previous))
+          ++i;
+        return i;
+      }
+    }
+
+    public void remove() { throw new UnsupportedOperationException(); }
+  }
+}
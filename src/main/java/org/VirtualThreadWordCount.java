@@ -0,0 +1,145 @@
+package org;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Word count that separates blocking work from CPU work. Every partition of the input
+ * is read and parsed on its own virtual thread, so reads and decompression of many
+ * partitions overlap without sizing a parser pool; tokenizing and counting run on a
+ * bounded pool of {@code threadCount} platform threads (the CPU cores by default).
+ * Parsed pages are handed over in batches, and a parser that is more than
+ * {@code queueBatches} batches ahead of the pool simply blocks, which is cheap for a
+ * virtual thread. The partitions are forked in a {@link TaskScope}: if any parser or
+ * counting task fails, the others are cancelled and the failure is rethrown.
+ *
+ * <p>Virtual threads need Java 21; on older JVMs the parsers run on platform threads.
+ */
+public class VirtualThreadWordCount implements WordCountEngine {
+
+    // Partitions per CPU core; virtual threads make oversubscribing the parsers cheap
+    private static final int PARTITIONS_PER_CORE = 4;
+
+    public static void main(String[] args) throws Exception {
+        EngineConfig config = EngineConfig.fromSystemProperties();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("=== Virtual Threads ===");
+        System.out.printf("Processing file: %s%n", config.describeSource());
+        System.out.printf("Number of threads: %d%n", config.getThreadCount());
+        System.out.printf("Virtual threads: %s%n", VirtualThreads.available() ? "yes" : "no (platform threads)");
+        System.out.println("-----------------------------------------------------");
+
+        new VirtualThreadWordCount().run(config).print();
+    }
+
+    @Override
+    public String name() {
+        return "VirtualThreads";
+    }
+
+    @Override
+    public EngineResult run(EngineConfig config) throws Exception {
+        Metrics.reset();
+        long start = System.currentTimeMillis();
+
+        WordCounter counter = WordCounter.create(config.getCountBackend(), config.getThreadCount());
+        ExecutorService cpuPool = Executors.newFixedThreadPool(config.getThreadCount());
+        Semaphore batchesAhead = new Semaphore(config.getQueueBatches());
+        AtomicInteger processedPages = new AtomicInteger();
+
+        int partitionCount = Math.max(config.getParserThreads(),
+                PARTITIONS_PER_CORE * Runtime.getRuntime().availableProcessors());
+        try (TaskScope scope = new TaskScope(VirtualThreads.factory("page-parser-"))) {
+            List<Supplier<Integer>> parsed = new ArrayList<>();
+            for (Iterable<Page> partition : config.partitions(partitionCount)) {
+                parsed.add(scope.fork(() -> parsePartition(partition, config, cpuPool, batchesAhead, counter)));
+            }
+            scope.join();
+            scope.throwIfFailed();
+            for (Supplier<Integer> pages : parsed) {
+                processedPages.addAndGet(pages.get());
+            }
+        } finally {
+            cpuPool.shutdownNow();
+        }
+
+        long end = System.currentTimeMillis();
+
+        return new EngineResult(name(), config, counter.result(), processedPages.get(), end - start);
+    }
+
+    // Parses one partition and counts its pages on the CPU pool; returns the number of pages
+    private static int parsePartition(Iterable<Page> partition, EngineConfig config, ExecutorService cpuPool,
+                                      Semaphore batchesAhead, WordCounter counter) throws Exception {
+        List<Future<?>> counted = new ArrayList<>();
+        int pages = 0;
+        try {
+            List<Page> batch = new ArrayList<>();
+            long batchChars = 0;
+            for (Page page : partition) {
+                if (page == null)
+                    break;
+                if (PageSplits.shouldSplit(page.getText(), config.getPageSplitChars())) {
+                    // Each part of a very long page is a task of its own for the CPU pool
+                    ++pages;
+                    for (Page part : PageSplits.parts(page, config.getPageSplitChars()))
+                        counted.add(submit(List.of(part), cpuPool, batchesAhead, counter));
+                    continue;
+                }
+                batch.add(page);
+                batchChars += page.getText().length();
+                ++pages;
+                if (batchChars >= config.getBatchChars()) {
+                    counted.add(submit(batch, cpuPool, batchesAhead, counter));
+                    batch = new ArrayList<>();
+                    batchChars = 0;
+                }
+            }
+            if (!batch.isEmpty())
+                counted.add(submit(batch, cpuPool, batchesAhead, counter));
+            // Counting failures surface here and fail the scope
+            for (Future<?> future : counted)
+                future.get();
+            return pages;
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            for (Future<?> future : counted)
+                future.cancel(true);
+            throw e;
+        }
+    }
+
+    // Blocks the (virtual) parser thread while too many batches wait for the CPU pool
+    private static Future<?> submit(List<Page> batch, ExecutorService cpuPool, Semaphore batchesAhead,
+                                    WordCounter counter) throws InterruptedException {
+        batchesAhead.acquire();
+        try {
+            return cpuPool.submit(() -> {
+                try {
+                    long begin = System.nanoTime();
+                    long tokens = 0;
+                    long chars = 0;
+                    for (Page page : batch) {
+                        for (CharSequence word : Words.tokens(page.getText())) {
+                            counter.count(word);
+                            ++tokens;
+                        }
+                        chars += page.getText().length();
+                    }
+                    Metrics.batchCounted(batch.size(), chars, tokens, begin);
+                } finally {
+                    batchesAhead.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            batchesAhead.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual threads when the JVM has them (Java 21+), looked up reflectively because the
+ * project is compiled for Java 17. On older JVMs the factory falls back to daemon
+ * platform threads, so callers work everywhere and only lose the cheap blocking.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /** True if {@link #factory} creates virtual threads on this JVM. */
+  static boolean available() {
+    return virtualFactory("probe-") != null;
+  }
+
+  /** A factory for threads named {@code prefix0, prefix1, ...}, virtual if possible. */
+  static ThreadFactory factory(String prefix) {
+    ThreadFactory virtual = virtualFactory(prefix);
+    if (virtual != null)
+      return virtual;
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  // Thread.ofVirtual().name(prefix, 0).factory(), or null before Java 21
+  private static ThreadFactory virtualFactory(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,355 @@
+package org;
+
+/**
+ * Single-pass filter that reduces wikitext to the prose a reader sees, so markup does not
+ * reach the tokenizer and the count table. It drops templates ({@code {{...}}}), tables
+ * ({@code {|...|}}), file and category links, comments, magic words and the content of
+ * non-prose elements such as {@code <ref>} and {@code <math>}; it keeps the label of
+ * a link (or its target when there is no label) and the text inside formatting tags,
+ * removes bold/italic quotes and heading markers, and decodes HTML entities. Dropped
+ * blocks become a single space so the words around them stay apart.
+ *
+ * <p>The page text is scanned once and the prose is written to a per-thread buffer;
+ * the only String built is the result. An unterminated template, table, link or element
+ * drops the rest of the page.
+ */
+final class WikiText {
+
+  // The prose is never longer than the markup it comes from
+  private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[1 << 16]);
+
+  // Elements whose content is not prose; everything up to the closing tag is dropped
+  private static final String[] SKIPPED_ELEMENTS = {
+      "ref", "references", "math", "chem", "ce", "score", "timeline", "gallery", "graph", "imagemap",
+      "syntaxhighlight", "source", "templatedata", "templatestyles", "mapframe", "maplink", "hiero"};
+
+  // Other tags MediaWiki accepts: the tag goes, its content stays. Block tags separate words
+  private static final String[] BLOCK_ELEMENTS = {
+      "br", "hr", "p", "div", "center", "blockquote", "pre", "poem", "section", "table", "tr", "td",
+      "th", "caption", "ol", "ul", "li", "dl", "dt", "dd", "indicator", "inputbox", "categorytree"};
+  private static final String[] INLINE_ELEMENTS = {
+      "nowiki", "span", "small", "big", "sup", "sub", "code", "tt", "kbd", "var", "samp", "s", "u", "i",
+      "b", "em", "strong", "strike", "del", "ins", "abbr", "cite", "q", "dfn", "mark", "bdi", "ruby",
+      "rt", "rp", "font", "wbr", "time", "data", "onlyinclude", "includeonly", "noinclude"};
+
+  // Named entities that decode to a character; 0 drops the entity, other names become a space
+  private static final String[] ENTITIES = {
+      "amp", "lt", "gt", "quot", "apos", "ndash", "mdash", "minus", "times", "hellip", "shy", "zwj", "zwnj"};
+  private static final char[] ENTITY_CHARS = {
+      '&', '<', '>', '"', '\'', '\u2013', '\u2014', '\u2212', '\u00D7', '\u2026', 0, 0, 0};
+
+  // Namespaces of links that are not prose: [[File:...]] and [[Category:...]] are dropped
+  private static final String[] SKIPPED_NAMESPACES = {"file:", "image:", "media:", "category:"};
+
+  private final String text;
+  private final int length;
+  private final char[] out;
+  private int size;
+  private int position;
+  // Something was dropped; the text on both sides is joined by exactly one blank
+  private boolean dropped;
+
+  private WikiText(String text, char[] out) {
+    this.text = text;
+    this.length = text.length();
+    this.out = out;
+  }
+
+  /** The page with its text reduced to prose. */
+  static Page strip(Page page) {
+    return new Page(page.getTitle(), strip(page.getText()));
+  }
+
+  /** The prose of {@code text}. */
+  static String strip(String text) {
+    char[] buffer = BUFFER.get();
+    if (buffer.length < text.length()) {
+      buffer = new char[Math.max(text.length(), buffer.length * 2)];
+      BUFFER.set(buffer);
+    }
+    return new WikiText(text, buffer).run();
+  }
+
+  private String run() {
+    while (position < length) {
+      char c = text.charAt(position);
+      switch (c) {
+        case '{':
+          if (at(position + 1, '{') || at(position + 1, '|')) {
+            skipBlocks();
+            continue;
+          }
+          break;
+        case '[':
+          if (at(position + 1, '[')) {
+            link();
+            continue;
+          }
+          if (externalLink())
+            continue;
+          break;
+        case ']':
+          if (at(position + 1, ']')) {
+            position += 2;
+            continue;
+          }
+          break;
+        case '<':
+          if (tag())
+            continue;
+          break;
+        case '&':
+          if (entity())
+            continue;
+          break;
+        case '\'':
+          if (at(position + 1, '\'')) {
+            skipRun('\'');
+            continue;
+          }
+          break;
+        case '=':
+          if (at(position + 1, '=')) {
+            skipRun('=');
+            space();
+            continue;
+          }
+          break;
+        case '_':
+          if (magicWord())
+            continue;
+          break;
+        default:
+          break;
+      }
+      emit(c);
+      ++position;
+    }
+    return new String(out, 0, size);
+  }
+
+  private boolean at(int index, char c) {
+    return index < length && text.charAt(index) == c;
+  }
+
+  private void emit(char c) {
+    if (dropped) {
+      dropped = false;
+      boolean blank = FastWords.isSeparator(c);
+      boolean afterBlank = size > 0 && FastWords.isSeparator(out[size - 1]);
+      // "a {{x}} b" must not leave two blanks: BreakIterator would count them as a word
+      if (blank && afterBlank)
+        return;
+      if (!blank && !afterBlank && size > 0)
+        out[size++] = ' ';
+    }
+    out[size++] = c;
+  }
+
+  // Keeps the words around something that was dropped apart, see emit
+  private void space() {
+    dropped = true;
+  }
+
+  private void skipRun(char c) {
+    while (position < length && text.charAt(position) == c)
+      ++position;
+  }
+
+  // Nested templates and tables; a table only closes on |}, a template only on }}
+  private void skipBlocks() {
+    long tables = 0;
+    int depth = 0;
+    while (position < length) {
+      char c = text.charAt(position);
+      boolean inTable = depth > 0 && depth <= 64 && (tables & 1L << (depth - 1)) != 0;
+      if (c == '{' && (at(position + 1, '{') || at(position + 1, '|'))) {
+        if (depth < 64)
+          tables = at(position + 1, '|') ? tables | 1L << depth : tables & ~(1L << depth);
+        ++depth;
+        position += 2;
+      } else if ((c == '}' && !inTable && at(position + 1, '}')) || (c == '|' && inTable && at(position + 1, '}'))) {
+        position += 2;
+        if (--depth == 0)
+          break;
+      } else {
+        ++position;
+      }
+    }
+    space();
+  }
+
+  // [[target]] keeps the target, [[target|label]] the label; ]] is dropped where it is met
+  private void link() {
+    int start = position + 2;
+    for (String namespace : SKIPPED_NAMESPACES) {
+      if (text.regionMatches(true, start, namespace, 0, namespace.length())) {
+        skipLinks();
+        return;
+      }
+    }
+    for (int end = start; end < length; end++) {
+      char c = text.charAt(end);
+      if (c == '|') {
+        position = end + 1;
+        return;
+      }
+      if (c == ']' || c == '[' || c == '\n')
+        break;
+    }
+    position = start;
+  }
+
+  // A file or category link with the links nested in its caption
+  private void skipLinks() {
+    int depth = 0;
+    while (position < length) {
+      if (at(position, '[') && at(position + 1, '[')) {
+        ++depth;
+        position += 2;
+      } else if (at(position, ']') && at(position + 1, ']')) {
+        position += 2;
+        if (--depth == 0)
+          break;
+      } else {
+        ++position;
+      }
+    }
+    space();
+  }
+
+  // [http://url label] keeps the label; the closing ] is punctuation to the tokenizers
+  private boolean externalLink() {
+    int start = position + 1;
+    if (!text.startsWith("http://", start) && !text.startsWith("https://", start)
+        && !text.startsWith("//", start) && !text.startsWith("ftp://", start) && !text.startsWith("mailto:", start))
+      return false;
+    int end = start;
+    while (end < length && text.charAt(end) != ' ' && text.charAt(end) != ']' && text.charAt(end) != '\n')
+      ++end;
+    position = end;
+    space();
+    return true;
+  }
+
+  // Comments and known tags; a lone < (a comparison, say) stays text
+  private boolean tag() {
+    int start = position + 1;
+    if (text.startsWith("!--", start)) {
+      int end = text.indexOf("-->", start + 3);
+      position = end < 0 ? length : end + 3;
+      space();
+      return true;
+    }
+    boolean closing = at(start, '/');
+    int nameStart = closing ? start + 1 : start;
+    int nameEnd = nameStart;
+    while (nameEnd < length && isAsciiLetterOrDigit(text.charAt(nameEnd)))
+      ++nameEnd;
+    if (nameEnd == nameStart || !(at(nameEnd, '>') || at(nameEnd, '/') || at(nameEnd, ' ') || at(nameEnd, '\n')))
+      return false;
+    // The tag ends at the next >, unless another < comes first
+    int close = nameEnd;
+    while (close < length && text.charAt(close) != '>' && text.charAt(close) != '<')
+      ++close;
+    if (!at(close, '>'))
+      return false;
+
+    if (find(INLINE_ELEMENTS, nameStart, nameEnd) >= 0) {
+      position = close + 1;
+      return true;
+    }
+    int skipped = find(SKIPPED_ELEMENTS, nameStart, nameEnd);
+    if (skipped < 0 && find(BLOCK_ELEMENTS, nameStart, nameEnd) < 0)
+      return false;
+    position = close + 1;
+    if (skipped >= 0 && !closing && text.charAt(close - 1) != '/')
+      skipElement(SKIPPED_ELEMENTS[skipped]);
+    space();
+    return true;
+  }
+
+  // Drops everything up to and including </name>
+  private void skipElement(String name) {
+    for (int i = position; i + 1 < length; i++) {
+      if (text.charAt(i) == '<' && text.charAt(i + 1) == '/'
+          && text.regionMatches(true, i + 2, name, 0, name.length())) {
+        int close = text.indexOf('>', i + 2 + name.length());
+        position = close < 0 ? length : close + 1;
+        return;
+      }
+    }
+    position = length;
+  }
+
+  // Index of the name that text[from, to) spells, ignoring case, or -1
+  private int find(String[] names, int from, int to) {
+    for (int i = 0; i < names.length; i++)
+      if (names[i].length() == to - from && text.regionMatches(true, from, names[i], 0, to - from))
+        return i;
+    return -1;
+  }
+
+  // &name; and &#NNN; / &#xHHHH; ; unknown names become a space
+  private boolean entity() {
+    int start = position + 1;
+    int end = start;
+    while (end < length && end - start < 10 && (isAsciiLetterOrDigit(text.charAt(end)) || text.charAt(end) == '#'))
+      ++end;
+    if (end == start || !at(end, ';'))
+      return false;
+    if (text.charAt(start) == '#') {
+      boolean hex = at(start + 1, 'x') || at(start + 1, 'X');
+      int code = 0;
+      int digits = hex ? start + 2 : start + 1;
+      if (digits == end)
+        return false;
+      for (int i = digits; i < end; i++) {
+        int digit = Character.digit(text.charAt(i), hex ? 16 : 10);
+        if (digit < 0)
+          return false;
+        code = code * (hex ? 16 : 10) + digit;
+        if (code > Character.MAX_CODE_POINT)
+          return false;
+      }
+      if (Character.isBmpCodePoint(code)) {
+        emit((char) code);
+      } else {
+        emit(Character.highSurrogate(code));
+        out[size++] = Character.lowSurrogate(code);
+      }
+    } else {
+      char decoded = named(start, end);
+      if (decoded == ' ')
+        space();
+      else if (decoded != 0)
+        emit(decoded);
+    }
+    position = end + 1;
+    return true;
+  }
+
+  // The character of a named entity; 0 for one that is dropped, a space if it is unknown
+  private char named(int from, int to) {
+    int index = find(ENTITIES, from, to);
+    return index < 0 ? ' ' : ENTITY_CHARS[index];
+  }
+
+  // __TOC__, __NOTOC__ and the other behaviour switches
+  private boolean magicWord() {
+    if (!at(position + 1, '_'))
+      return false;
+    int end = position + 2;
+    while (end < length && text.charAt(end) >= 'A' && text.charAt(end) <= 'Z')
+      ++end;
+    if (end == position + 2 || !at(end, '_') || !at(end + 1, '_'))
+      return false;
+    position = end + 2;
+    space();
+    return true;
+  }
+
+  private static boolean isAsciiLetterOrDigit(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+  }
+}
@@ -1,49 +1,41 @@
 package org;
 
-import java.util.stream.Collectors;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.LinkedHashMap;
+public class WordCount implements WordCountEngine {
 
-public class WordCount {
-  static final int MAX_PAGES = 100000;
-  static final String FILE_NAME = System.getProperty("fileName", "enwiki.xml");
-
-  private static final HashMap<String, Integer> counts = new HashMap<>();
-
-  public static void main(String[] args) {
+  public static void main(String[] args) throws Exception {
+    EngineConfig config = EngineConfig.fromSystemProperties();
     System.out.println("-----------------------------------------------------");
     System.out.println("=== Word Count Benchmark ===");
-    System.out.printf("Processing file: %s%n", FILE_NAME);
+    System.out.printf("Processing file: %s%n", config.describeSource());
     System.out.println("-----------------------------------------------------");
 
-    long start = System.currentTimeMillis();
-    Iterable<Page> pages = new Pages(MAX_PAGES, FILE_NAME);
-    int processedPages = 0;
-    for(Page page: pages) {
-      if(page == null)
-        break;
-      Iterable<String> words = new Words(page.getText());
-      for (String word: words)
-        if(word.length()>1 || word.equals("a") || word.equals("I"))
-          countWord(word);
-      ++processedPages;    
-    }
-    long end = System.currentTimeMillis();
-    System.out.println("Processed pages: " + processedPages);
-    System.out.println("Elapsed time: " + (end - start) + "ms");
+    new WordCount().run(config).print();
+  }
 
-    LinkedHashMap<String, Integer> commonWords = new LinkedHashMap<>();
-    counts.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())) .forEachOrdered(x -> commonWords.put(x.getKey(), x.getValue()));
-    commonWords.entrySet().stream().limit(3).toList().forEach(x -> System.out.println("Word: \'"+x.getKey()+"\' with total "+x.getValue()+" occurrences!"));
+  @Override
+  public String name() {
+    return "Sequential";
   }
 
-  private static void countWord(String word) {
-    Integer currentCount = counts.get(word);
-    if (currentCount == null)
-      counts.put(word, 1);
-    else
-      counts.put(word, currentCount + 1);
+  @Override
+  public EngineResult run(EngineConfig config) {
+    CountTable counts = new CountTable();
+    int[] processedPages = {0};
+
+    Metrics.reset();
+    long start = System.currentTimeMillis();
+    config.forEachPageInOrder(page -> {
+      long begin = System.nanoTime();
+      long tokens = 0;
+      for (CharSequence word: Words.tokens(page.getText())) {
+        counts.increment(word);
+        ++tokens;
+      }
+      Metrics.batchCounted(1, page.getText().length(), tokens, begin);
+      ++processedPages[0];
+    });
+    long end = System.currentTimeMillis();
+
+    return new EngineResult(name(), config, counts, processedPages[0], end - start);
   }
 }
@@ -0,0 +1,32 @@
+package org;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One word-count strategy. An engine keeps no state between runs: executors, queues and
+ * count tables are created by {@link #run} and released before it returns, so the same
+ * instance can be run repeatedly in one JVM, e.g. to measure warmed-up iterations.
+ */
+interface WordCountEngine {
+
+  /** Short name used in benchmark reports. */
+  String name();
+
+  /** Counts the words of the pages described by {@code config}. */
+  EngineResult run(EngineConfig config) throws Exception;
+
+  /** Every strategy, in the order the benchmark runner reports them. */
+  static List<WordCountEngine> all() {
+    return Arrays.asList(new WordCount(), new MultiThreadWithoutThreadPoolWordCount(),
+        new MultiThreadWithThreadPoolWordCount(), new ForkJoinWordCount(), new CompletableFutureWordCount(),
+        new VirtualThreadWordCount(), new StreamingForkJoinWordCount());
+  }
+
+  static WordCountEngine forName(String name) {
+    for (WordCountEngine engine : all())
+      if (engine.name().equalsIgnoreCase(name) || engine.getClass().getSimpleName().equalsIgnoreCase(name))
+        return engine;
+    throw new IllegalArgumentException("Unknown engine: " + name);
+  }
+}
@@ -0,0 +1,42 @@
+package org;
+
+/**
+ * Thread-safe word counting shared by all workers of a run. Implementations differ in
+ * how they avoid contention on frequent words; see {@link #create(String, int)}.
+ */
+interface WordCounter {
+
+  /** Counts one occurrence; may be called concurrently from any worker thread. */
+  void count(CharSequence word);
+
+  /**
+   * Returns the merged counts. Call only after every worker has finished and its
+   * writes are visible (e.g. after the executor terminated or the futures joined).
+   */
+  WordSummary result();
+
+  /**
+   * Creates the backend named by {@code backend}, as given in the {@code countBackend}
+   * system property:
+   * <ul>
+   *   <li>{@code map} (default): one shared {@code ConcurrentHashMap}</li>
+   *   <li>{@code local}: a thread-confined {@link CountTable} per worker, merged at the end</li>
+   *   <li>{@code striped}: hash-striped locked shards, with {@code LongAdder} cells for the hottest words</li>
+   *   <li>{@code offheap}: like {@code local}, with {@link OffHeapCountTable}s</li>
+   * </ul>
+   */
+  static WordCounter create(String backend, int threads) {
+    switch (backend) {
+      case "map":
+        return new MapWordCounter();
+      case "local":
+        return new LocalWordCounter();
+      case "striped":
+        return new StripedWordCounter(threads);
+      case "offheap":
+        return new OffHeapWordCounter();
+      default:
+        throw new IllegalArgumentException("Unknown count backend: " + backend);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org;
+
+import java.util.List;
+
+/**
+ * What a worker accumulates while counting: exact counts ({@link CountTable}, or
+ * {@link OffHeapCountTable} outside the heap) or a bounded-memory approximation
+ * ({@link ApproximateCounts}); or counts of word pairs and triples ({@link NGramCounts}).
+ * Summaries of different workers are combined pairwise, like the ForkJoin
+ * {@code mergeCounts} step.
+ */
+interface WordSummary {
+
+  void increment(CharSequence word);
+
+  /**
+   * Counts the words of one text (a page or a part of one) and returns how many there
+   * were. Summaries that look at runs of words start a new run here.
+   */
+  default long incrementAll(Iterable<CharSequence> words) {
+    long tokens = 0;
+    for (CharSequence word : words) {
+      increment(word);
+      ++tokens;
+    }
+    return tokens;
+  }
+
+  /**
+   * Folds {@code other}, which must be the same kind of summary, into one result;
+   * either argument may be reused and returned.
+   */
+  WordSummary combine(WordSummary other);
+
+  /** The {@code k} most frequent words, most frequent first. */
+  List<TopK.WordFrequency> top(int k);
+
+  /** Prints the {@code k} most frequent words in the engines' report format. */
+  void report(int k);
+
+  /** Frees memory held outside the Java heap; the summary must not be used afterwards. */
+  default void release() {
+  }
+
+  /**
+   * Creates an empty summary for the {@code countMode} system property value:
+   * {@code exact} (default), {@code offheap}, {@code approximate}, {@code bigram} or
+   * {@code trigram}. The n-gram modes map words to ids through {@code symbols}; summaries
+   * that will be combined must share it, so an engine creates one per run.
+   */
+  static WordSummary create(String mode, SymbolTable symbols) {
+    switch (mode) {
+      case "exact":
+        return new CountTable();
+      case "offheap":
+        return new OffHeapCountTable();
+      case "approximate":
+        return new ApproximateCounts();
+      case "bigram":
+        return new NGramCounts(2, symbols);
+      case "trigram":
+        return new NGramCounts(3, symbols);
+      default:
+        throw new IllegalArgumentException("Unknown count mode: " + mode);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package org;
 
 import java.text.BreakIterator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 class Words implements Iterable<String> {
 
@@ -11,6 +12,82 @@ class Words implements Iterable<String> {
     this.text = text;
   }
 
+  private static final String TOKENIZER = available(System.getProperty("tokenizer", "breakiterator"));
+
+  /**
+   * Returns the words of {@code text} that are worth counting: segments longer than one
+   * character, plus "a" and "I". The {@code tokenizer} system property picks the
+   * implementation: {@code breakiterator} (default) filters the segments of this class,
+   * {@code fast} uses {@link FastWords}, which also drops whitespace and punctuation runs
+   * and reuses one {@code CharSequence} window for every token, and {@code vector} uses
+   * {@link VectorWords}, which returns the same tokens as {@code fast}.
+   */
+  static Iterable<CharSequence> tokens(String text) {
+    return tokens(text, TOKENIZER);
+  }
+
+  /** Same as {@link #tokens(String)} with the tokenizer chosen by the caller. */
+  static Iterable<CharSequence> tokens(String text, boolean fast) {
+    return tokens(text, fast ? "fast" : "breakiterator");
+  }
+
+  /** Same as {@link #tokens(String)} with the tokenizer named by the caller. */
+  static Iterable<CharSequence> tokens(String text, String tokenizer) {
+    switch (tokenizer) {
+      case "vector":
+        return new VectorWords(text);
+      case "fast":
+        return new FastWords(text);
+      default:
+        Words words = new Words(text);
+        return () -> new FilteredIterator(words.iterator());
+    }
+  }
+
+  /**
+   * {@code tokenizer}, or {@code fast} if it is {@code vector} and the JVM was started
+   * without {@code --add-modules jdk.incubator.vector}; {@link VectorWords} must not be
+   * loaded then.
+   */
+  static String available(String tokenizer) {
+    if (tokenizer.equals("vector") && !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      System.out.println("Vector API not available (start the JVM with --add-modules jdk.incubator.vector), using the fast tokenizer");
+      return "fast";
+    }
+    return tokenizer;
+  }
+
+  static boolean isCountable(String word) {
+    return word.length() > 1 || word.equals("a") || word.equals("I");
+  }
+
+  private static class FilteredIterator implements Iterator<CharSequence> {
+
+    private final Iterator<String> words;
+    private String next;
+
+    FilteredIterator(Iterator<String> words) {
+      this.words = words;
+    }
+
+    public boolean hasNext() {
+      while (next == null && words.hasNext()) {
+        String word = words.next();
+        if (isCountable(word))
+          next = word;
+      }
+      return next != null;
+    }
+
+    public CharSequence next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      String word = next;
+      next = null;
+      return word;
+    }
+  }
+
   private class WordIterator implements Iterator<String> {
 
     private BreakIterator wordBoundary;